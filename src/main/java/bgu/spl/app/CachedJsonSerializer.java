@@ -0,0 +1,131 @@
+package bgu.spl.app;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Serializes objects to json exactly like {@code new Gson().toJson(object)}, without the cost 
+ * of building a Gson and looking up its adapters on every call.
+ * <p>
+ * A single Gson is shared by all of the threads, and the adapter of every class is looked up 
+ * only once. Every thread also keeps its own JsonWriter and buffer, so serializing an object 
+ * allocates nothing but the resulting String - and with {@link #appendJson}, not even that.
+ */
+public final class CachedJsonSerializer {
+	/** A buffer that grew beyond this capacity isn't kept, so one huge object doesn't pin its memory */
+	private static final int MAX_RETAINED_BUFFER_CAPACITY = 1 << 14;
+	
+	/** Thread-safe */
+	private static final Gson GSON = new Gson();
+	
+	private static final ConcurrentMap<Class<?>, TypeAdapter<Object>> ADAPTERS = new ConcurrentHashMap<>();
+	
+	private static final ThreadLocal<ThreadState> THREAD_STATES = ThreadLocal.withInitial(ThreadState::new);
+	
+	private CachedJsonSerializer() {
+	}
+	
+	/** @return The json of the given object */
+	public static String toJson(Object o) {
+		ThreadState state = THREAD_STATES.get();
+		if (state.inUse) {
+			// Called from within an adapter - the writer of the thread is busy
+			return GSON.toJson(o);
+		}
+		
+		StringBuilder buffer = state.buffer;
+		buffer.setLength(0);
+		appendJson(o, buffer);
+		String json = buffer.toString();
+		if (buffer.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+			state.buffer = new StringBuilder();
+		}
+		return json;
+	}
+	
+	/** Appends the json of the given object to {@code sb} */
+	public static void appendJson(Object o, StringBuilder sb) {
+		ThreadState state = THREAD_STATES.get();
+		if (state.inUse) {
+			sb.append(GSON.toJson(o));
+			return;
+		}
+		
+		state.inUse = true;
+		state.writer.target = sb;
+		try {
+			adapterOf(o.getClass()).write(state.jsonWriter, o);
+			state.jsonWriter.flush();
+		} catch (IOException | RuntimeException e) {
+			// The json writer may be left in the middle of an object, so it can't be reused
+			THREAD_STATES.remove();
+			throw new IllegalStateException("Failed to serialize " + o.getClass().getName(), e);
+		} finally {
+			state.writer.target = null;
+			state.inUse = false;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static TypeAdapter<Object> adapterOf(Class<?> type) {
+		TypeAdapter<Object> adapter = ADAPTERS.get(type);
+		if (adapter == null) {
+			adapter = ADAPTERS.computeIfAbsent(type, t -> (TypeAdapter<Object>) GSON.getAdapter(t));
+		}
+		return adapter;
+	}
+	
+	/** The reusable writing state of a single thread */
+	private static class ThreadState {
+		StringBuilder buffer;
+		final StringBuilderWriter writer;
+		final JsonWriter jsonWriter;
+		boolean inUse;
+		
+		ThreadState() {
+			this.buffer = new StringBuilder();
+			this.writer = new StringBuilderWriter();
+			this.jsonWriter = new JsonWriter(writer);
+			// The same settings Gson.toJson() uses. Lenient, so it may write a top-level value 
+			// after another one.
+			jsonWriter.setLenient(true);
+			jsonWriter.setHtmlSafe(true);
+			jsonWriter.setSerializeNulls(false);
+			this.inUse = false;
+		}
+	}
+	
+	/** Writes to whatever StringBuilder it currently targets */
+	private static class StringBuilderWriter extends Writer {
+		StringBuilder target;
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			target.append(cbuf, off, len);
+		}
+		
+		@Override
+		public void write(int c) {
+			target.append((char) c);
+		}
+		
+		@Override
+		public void write(String str, int off, int len) {
+			target.append(str, off, off + len);
+		}
+		
+		@Override
+		public void flush() {
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
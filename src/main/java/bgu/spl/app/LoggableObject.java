@@ -1,14 +1,19 @@
 package bgu.spl.app;
 
-import com.google.gson.Gson;
-
 /**
  * Implements the object's toString() with Gson, which basically prints the entire contents 
  * of the object. If you don't want some field to be logged, declare it as transient.
  * As many classes as possible should inherit from this class to ease logging.
+ * <p>
+ * The json is built by the {@link CachedJsonSerializer}, which is cheap enough for the hot paths.
  */
 public abstract class LoggableObject {
 	public String toString() {
-		return new Gson().toJson(this);
+		return CachedJsonSerializer.toJson(this);
+	}
+	
+	/** Appends the same json toString() returns to {@code sb}, without building a String */
+	public void appendTo(StringBuilder sb) {
+		CachedJsonSerializer.appendJson(this, sb);
 	}
 }
@@ -0,0 +1,93 @@
+package bgu.spl.app;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gives every name a dense int id - 0 for the first name it sees, 1 for the next one and so 
+ * on - so that names can be stored and indexed as ints. A name is added the first time it is 
+ * asked for. Every name is kept once, so whoever gets it by id shares the same instance.
+ */
+public class NameDictionary {
+	private static final int INITIAL_CAPACITY = 16;
+	
+	/** Lets asking for an existing id take no lock */
+	private final ConcurrentMap<String, Integer> ids;
+	
+	/** 
+	 * The names, indexed by id. Replaced by a larger copy when full. The name of an id is 
+	 * written before the id is put in the map, so whoever got the id also sees the name.
+	 */
+	private volatile String[] names;
+	
+	/** The amount of ids given. Guarded by addLock */
+	private int size;
+	
+	/** Guards adding new names */
+	private final Lock addLock;
+	
+	public NameDictionary() {
+		this.ids = new ConcurrentHashMap<>();
+		this.names = new String[INITIAL_CAPACITY];
+		this.size = 0;
+		this.addLock = new ReentrantLock();
+	}
+	
+	/** @return The id of the given name. Adds the name if it is new. */
+	public int idOf(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		
+		addLock.lock();
+		try {
+			id = ids.get(name);
+			if (id == null) {
+				id = size;
+				onAdded(id, name);
+				if (size == names.length) {
+					names = Arrays.copyOf(names, size * 2);
+				}
+				names[size++] = name;
+				ids.put(name, id);
+			}
+			return id;
+		} finally {
+			addLock.unlock();
+		}
+	}
+	
+	/** 
+	 * @return The name with the given id
+	 * @throws IllegalArgumentException If no name has this id
+	 */
+	public String nameOf(int id) {
+		String[] currentNames = names;
+		String name = id >= 0 && id < currentNames.length ? currentNames[id] : null;
+		if (name == null) {
+			throw new IllegalArgumentException("Unknown name id: " + id);
+		}
+		return name;
+	}
+	
+	/** @return The amount of names. Every id is smaller than it. */
+	public int size() {
+		addLock.lock();
+		try {
+			return size;
+		} finally {
+			addLock.unlock();
+		}
+	}
+	
+	/** 
+	 * Called when a new name is about to be given an id. Called under a lock, in the order of the 
+	 * ids. If it throws, the name isn't added. Does nothing by default.
+	 */
+	protected void onAdded(int id, String name) {
+	}
+}
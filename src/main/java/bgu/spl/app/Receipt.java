@@ -4,6 +4,9 @@ public class Receipt extends LoggableObject {
 	private final String seller;
 	private final String customer;
 	private final String shoeType;
+	
+	/** The id of shoeType in the ShoeTypeDictionary */
+	private final transient int shoeTypeId;
 	private final boolean discount;
 	private final int issuedTick;
 	private final int requestTick;
@@ -11,9 +14,16 @@ public class Receipt extends LoggableObject {
 	
 	public Receipt(String seller, String customer, String shoeType, boolean discount, 
 			       int issuedTick, int requestTick, int amountSold) {
+		this(seller, customer, ShoeTypeDictionary.getInstance().idOf(shoeType), discount, 
+				issuedTick, requestTick, amountSold);
+	}
+	
+	public Receipt(String seller, String customer, int shoeTypeId, boolean discount, 
+			       int issuedTick, int requestTick, int amountSold) {
 		this.seller = seller;
 		this.customer = customer;
-		this.shoeType = shoeType;
+		this.shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		this.shoeTypeId = shoeTypeId;
 		this.discount = discount;
 		this.issuedTick = issuedTick;
 		this.requestTick = requestTick;
@@ -37,6 +47,10 @@ public class Receipt extends LoggableObject {
 	public String getShoeType() {
 		return shoeType;
 	}
+	
+	public int getShoeTypeId() {
+		return shoeTypeId;
+	}
 
 
 
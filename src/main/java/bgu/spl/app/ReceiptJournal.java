@@ -0,0 +1,477 @@
+package bgu.spl.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps receipts off the heap, as fixed-size binary records in memory-mapped files, so a long
+ * run doesn't retain a Receipt object per sale and its receipts survive the process.
+ * <p>
+ * The journal is a directory of segment files, each holding a fixed amount of records. A new
+ * segment is mapped when the previous one is full. Appending takes no lock: every append claims
+ * the next record slot and writes it in place, marking it committed last, then publishes it to
+ * the cursors in the order the slots were claimed. The names in a receipt are stored as ids,
+ * which are kept in a small names file in the same directory.
+ * <p>
+ * A {@link Cursor} reads the records straight out of the mapped segments, without creating an
+ * object per record. Opening an existing directory recovers its receipts and appends after them.
+ * A record that was claimed but never committed, because the process died while writing it,
+ * is skipped.
+ */
+public class ReceiptJournal implements Closeable {
+	/** The default amount of records in a segment, 2MB worth of them */
+	public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+
+	/** The layout of a record. Every field is an int */
+	private static final int SHOE_TYPE_OFFSET = 0;
+	private static final int CUSTOMER_OFFSET = 4;
+	private static final int SELLER_OFFSET = 8;
+	private static final int ISSUED_TICK_OFFSET = 12;
+	private static final int REQUEST_TICK_OFFSET = 16;
+	private static final int AMOUNT_SOLD_OFFSET = 20;
+	private static final int FLAGS_OFFSET = 24;
+	private static final int COMMIT_OFFSET = 28;
+	private static final int RECORD_SIZE = 32;
+
+	private static final int DISCOUNT_FLAG = 1;
+
+	/** 
+	 * Written to a record after the rest of it, so recovery can tell a record that was cut short. 
+	 * A new segment is all zeroes, so it has none.
+	 */
+	private static final int COMMITTED = 0x52435054;
+
+	private static final String SEGMENT_PREFIX = "receipts-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String NAMES_FILE = "names";
+
+	/** The prefixes of the lines in the names file */
+	private static final char SHOE_TYPE_NAME = 'T';
+	private static final char CUSTOMER_NAME = 'C';
+	private static final char SELLER_NAME = 'S';
+
+	private final Path directory;
+	private final int recordsPerSegment;
+
+	/** The names in the records. Their ids are the journal's own, so they are the same after recovery */
+	private final NameDictionary shoeTypes;
+	private final NameDictionary customers;
+	private final NameDictionary sellers;
+
+	/** Appends the new names to the names file. Null while the journal is recovered */
+	private Writer namesOut;
+
+	/** 
+	 * Guards namesOut, which the three dictionaries share. A lock rather than a monitor, so a 
+	 * virtual thread that waits for it doesn't pin its carrier thread.
+	 */
+	private final Lock namesLock;
+
+	/** The index of the next record slot to claim */
+	private final AtomicLong nextIndex;
+
+	/**
+	 * The cursors read only the records below this index. It is advanced past a record after the 
+	 * record is written, so its volatile write and read order the record's fields before any 
+	 * cursor that reads them.
+	 */
+	private final AtomicLong publishedEnd;
+
+	/** The index of the first record appended since the journal was opened. The ones before it were recovered. */
+	private final long firstSessionIndex;
+
+	/**
+	 * The mapped segments, in order. Replaced by a larger copy when a segment is added. Absolute
+	 * puts don't move the position of a buffer, so the appending threads share the segments.
+	 */
+	private volatile MappedByteBuffer[] segments;
+
+	/** Guards adding segments */
+	private final Lock segmentsLock;
+
+	/**
+	 * Opens the journal in the given directory, with the default segment size.
+	 * The directory is created if needed.
+	 */
+	public ReceiptJournal(Path directory) throws IOException {
+		this(directory, DEFAULT_RECORDS_PER_SEGMENT);
+	}
+
+	/**
+	 * Opens the journal in the given directory, recovering the receipts already in it.
+	 * @param recordsPerSegment Must be the same as when the journal was created
+	 * @throws IllegalStateException If the directory holds a journal that doesn't fit
+	 */
+	public ReceiptJournal(Path directory, int recordsPerSegment) throws IOException {
+		if (recordsPerSegment < 1) {
+			throw new IllegalArgumentException("Records per segment must be positive: " + recordsPerSegment);
+		}
+		this.directory = directory;
+		this.recordsPerSegment = recordsPerSegment;
+		this.shoeTypes = new JournalNames(SHOE_TYPE_NAME);
+		this.customers = new JournalNames(CUSTOMER_NAME);
+		this.sellers = new JournalNames(SELLER_NAME);
+		this.segments = new MappedByteBuffer[0];
+		this.segmentsLock = new ReentrantLock();
+		this.namesLock = new ReentrantLock();
+
+		Files.createDirectories(directory);
+		recoverNames();
+		this.firstSessionIndex = recoverSegments();
+		this.nextIndex = new AtomicLong(firstSessionIndex);
+		this.publishedEnd = new AtomicLong(firstSessionIndex);
+		this.namesOut = Files.newBufferedWriter(directory.resolve(NAMES_FILE), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Appends the given receipt. May be called by many threads at once.
+	 * @throws UncheckedIOException If a new segment can't be mapped
+	 */
+	public void append(Receipt receipt) {
+		int shoeTypeId = shoeTypes.idOf(receipt.getShoeType());
+		int customerId = customers.idOf(receipt.getCustomer());
+		int sellerId = sellers.idOf(receipt.getSeller());
+
+		long index = nextIndex.getAndIncrement();
+		try {
+			MappedByteBuffer segment = segmentOf(index);
+			int offset = offsetOf(index);
+			segment.putInt(offset + SHOE_TYPE_OFFSET, shoeTypeId);
+			segment.putInt(offset + CUSTOMER_OFFSET, customerId);
+			segment.putInt(offset + SELLER_OFFSET, sellerId);
+			segment.putInt(offset + ISSUED_TICK_OFFSET, receipt.getIssuedTick());
+			segment.putInt(offset + REQUEST_TICK_OFFSET, receipt.getRequestTick());
+			segment.putInt(offset + AMOUNT_SOLD_OFFSET, receipt.getAmountSold());
+			segment.putInt(offset + FLAGS_OFFSET, receipt.isDiscount() ? DISCOUNT_FLAG : 0);
+			segment.putInt(offset + COMMIT_OFFSET, COMMITTED);
+		} finally {
+			// In the order the slots were claimed, so waiting only for appends that are a few 
+			// puts from done. Published even if this one failed, so the later ones aren't stuck.
+			while (publishedEnd.get() != index) {
+				Thread.yield();
+			}
+			publishedEnd.set(index + 1);
+		}
+	}
+
+	/**
+	 * @return A cursor over the records appended so far, in the order they were appended.
+	 *         A record that is being appended concurrently may be skipped.
+	 */
+	public Cursor cursor() {
+		return new Cursor(0, publishedEnd.get());
+	}
+
+	/**
+	 * @return A cursor over the records appended since the journal was opened - without the 
+	 *         recovered ones - in the order of their issued tick. Records of the same tick keep 
+	 *         the order they were appended in. Only an index of 8 bytes per record is kept on the 
+	 *         heap, so the records are still read straight from the segments.
+	 */
+	public OrderedCursor sessionCursorByIssuedTick() {
+		Cursor cursor = new Cursor(firstSessionIndex, publishedEnd.get());
+		long[] order = new long[64];
+		int count = 0;
+		while (cursor.next()) {
+			long relativeIndex = cursor.index - firstSessionIndex;
+			if (relativeIndex > 0xFFFFFFFFL || count == Integer.MAX_VALUE) {
+				throw new IllegalStateException("Too many receipts to order: " + relativeIndex);
+			}
+			if (count == order.length) {
+				order = Arrays.copyOf(order, (int)Math.min(Integer.MAX_VALUE, 2L * count));
+			}
+			// Sorting the keys sorts by the tick, then by the index
+			order[count++] = ((long)cursor.getIssuedTick() << 32) | relativeIndex;
+		}
+		Arrays.sort(order, 0, count);
+		return new OrderedCursor(Arrays.copyOf(order, count));
+	}
+
+	/** @return The amount of record slots claimed so far, including ones that weren't committed */
+	public long getRecordCount() {
+		return nextIndex.get();
+	}
+
+	/** Writes the appended records and names to the storage device */
+	public void force() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		namesOut.flush();
+	}
+
+	/** Forces the journal and closes the names file. Nothing may be appended afterwards. */
+	@Override
+	public void close() throws IOException {
+		force();
+		namesOut.close();
+	}
+
+	/**
+	 * Reads the records of a journal without copying them: every call to {@link #next()} moves
+	 * the cursor to the next committed record, and the getters read its fields from the mapped
+	 * segment.
+	 */
+	public class Cursor {
+		private final long end;
+		private long index;
+		private MappedByteBuffer segment;
+		private int offset;
+
+		private Cursor(long from, long end) {
+			this.end = end;
+			this.index = from - 1;
+		}
+
+		/** @return true if the cursor moved to the next record, false if there are no more */
+		public boolean next() {
+			while (++index < end) {
+				if (moveTo(index)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/** 
+		 * Points the cursor at the given record, which must be below the published end. 
+		 * @return true if the record is committed 
+		 */
+		boolean moveTo(long recordIndex) {
+			index = recordIndex;
+			segment = segmentOf(recordIndex);
+			offset = offsetOf(recordIndex);
+			return segment.getInt(offset + COMMIT_OFFSET) == COMMITTED;
+		}
+
+		public String getShoeType() {
+			return shoeTypes.nameOf(segment.getInt(offset + SHOE_TYPE_OFFSET));
+		}
+
+		public String getCustomer() {
+			return customers.nameOf(segment.getInt(offset + CUSTOMER_OFFSET));
+		}
+
+		public String getSeller() {
+			return sellers.nameOf(segment.getInt(offset + SELLER_OFFSET));
+		}
+
+		public int getIssuedTick() {
+			return segment.getInt(offset + ISSUED_TICK_OFFSET);
+		}
+
+		public int getRequestTick() {
+			return segment.getInt(offset + REQUEST_TICK_OFFSET);
+		}
+
+		public int getAmountSold() {
+			return segment.getInt(offset + AMOUNT_SOLD_OFFSET);
+		}
+
+		public boolean isDiscount() {
+			return (segment.getInt(offset + FLAGS_OFFSET) & DISCOUNT_FLAG) != 0;
+		}
+
+		/** @return A Receipt with the fields of the current record */
+		public Receipt toReceipt() {
+			return new Receipt(getSeller(), getCustomer(), getShoeType(), isDiscount(),
+					getIssuedTick(), getRequestTick(), getAmountSold());
+		}
+	}
+
+	/** A cursor that visits the records in the order of an index built in advance */
+	public class OrderedCursor extends Cursor {
+		/** The keys built by sessionCursorByIssuedTick(). The low 32 bits hold the record index. */
+		private final long[] order;
+		private int position;
+
+		private OrderedCursor(long[] order) {
+			super(firstSessionIndex, firstSessionIndex);
+			this.order = order;
+			this.position = -1;
+		}
+
+		/** @return The amount of records the cursor visits */
+		public int size() {
+			return order.length;
+		}
+
+		@Override
+		public boolean next() {
+			if (++position >= order.length) {
+				return false;
+			}
+			// Every indexed record was already seen committed
+			moveTo(firstSessionIndex + (order[position] & 0xFFFFFFFFL));
+			return true;
+		}
+	}
+
+	private int offsetOf(long index) {
+		return (int)(index % recordsPerSegment) * RECORD_SIZE;
+	}
+
+	/** @return The segment of the given record, mapping new segments up to it if needed */
+	private MappedByteBuffer segmentOf(long index) {
+		int segmentIndex = (int)(index / recordsPerSegment);
+		MappedByteBuffer[] currentSegments = segments;
+		if (segmentIndex < currentSegments.length) {
+			return currentSegments[segmentIndex];
+		}
+
+		segmentsLock.lock();
+		try {
+			while (segments.length <= segmentIndex) {
+				addSegment();
+			}
+			return segments[segmentIndex];
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't map a receipt journal segment in " + directory, e);
+		} finally {
+			segmentsLock.unlock();
+		}
+	}
+
+	/** Maps the next segment, creating its file if it doesn't exist. Called under segmentsLock. */
+	private void addSegment() throws IOException {
+		int segmentIndex = segments.length;
+		Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+		long segmentSize = (long)recordsPerSegment * RECORD_SIZE;
+		// The mapping stays valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			if (size != 0 && size != segmentSize) {
+				throw new IllegalStateException("The receipt journal segment " + path + " has " + size
+						+ " bytes instead of " + segmentSize);
+			}
+			MappedByteBuffer[] newSegments = Arrays.copyOf(segments, segmentIndex + 1);
+			newSegments[segmentIndex] = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			segments = newSegments;
+		}
+	}
+
+	/** 
+	 * Gives the names in the names file the same ids they had when they were written. A last 
+	 * line without a newline was cut short by a crash, so it is truncated away - no record 
+	 * refers to it, since a name is written before its id is used.
+	 */
+	private void recoverNames() throws IOException {
+		Path path = directory.resolve(NAMES_FILE);
+		if (!Files.exists(path)) {
+			return;
+		}
+		byte[] bytes = Files.readAllBytes(path);
+		int completeLength = bytes.length;
+		while (completeLength > 0 && bytes[completeLength - 1] != '\n') {
+			completeLength--;
+		}
+		if (completeLength < bytes.length) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(completeLength);
+			}
+		}
+
+		if (completeLength == 0) {
+			return;
+		}
+		String names = new String(bytes, 0, completeLength, StandardCharsets.UTF_8);
+		for (String line : names.split("\n")) {
+			if (line.isEmpty()) {
+				throw new IllegalStateException("Empty line in the receipt journal names");
+			}
+			String name = line.substring(1);
+			switch (line.charAt(0)) {
+			case SHOE_TYPE_NAME:
+				shoeTypes.idOf(name);
+				break;
+			case CUSTOMER_NAME:
+				customers.idOf(name);
+				break;
+			case SELLER_NAME:
+				sellers.idOf(name);
+				break;
+			default:
+				throw new IllegalStateException("Bad line in the receipt journal names: " + line);
+			}
+		}
+	}
+
+	/**
+	 * Maps the existing segments.
+	 * @return The index after the last committed record
+	 */
+	private long recoverSegments() throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+
+		// addSegment() maps the segments in order, by their index in the file name
+		segmentsLock.lock();
+		try {
+			for (int i = 0; i < paths.size(); i++) {
+				addSegment();
+			}
+		} finally {
+			segmentsLock.unlock();
+		}
+
+		long end = (long)segments.length * recordsPerSegment;
+		while (end > 0 && segmentOf(end - 1).getInt(offsetOf(end - 1) + COMMIT_OFFSET) != COMMITTED) {
+			end--;
+		}
+		return end;
+	}
+
+	/** A dictionary of one kind of name, that writes its new names to the names file */
+	private class JournalNames extends NameDictionary {
+		private final char kind;
+
+		JournalNames(char kind) {
+			this.kind = kind;
+		}
+
+		@Override
+		protected void onAdded(int id, String name) {
+			if (namesOut == null) {
+				// Recovered from the names file
+				return;
+			}
+			if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+				throw new IllegalArgumentException("A journaled name can't span lines: " + name);
+			}
+			// Written before any record refers to the id
+			namesLock.lock();
+			try {
+				namesOut.write(kind);
+				namesOut.write(name);
+				namesOut.write('\n');
+				namesOut.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can't write to the receipt journal names in " + directory, e);
+			} finally {
+				namesLock.unlock();
+			}
+		}
+	}
+}
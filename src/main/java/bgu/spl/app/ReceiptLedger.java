@@ -0,0 +1,154 @@
+package bgu.spl.app;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An append-only collection of receipts, iterated in the order of their issued tick.
+ * <p>
+ * Every thread that files receipts appends them to a shard of its own, so filing takes no lock
+ * and the filing threads don't contend. Receipts are filed almost in tick order, so the order 
+ * is only restored when the ledger is read: every shard is sorted (which is nearly free for 
+ * a nearly sorted shard), and the iterator merges the shards lazily. Receipts of the same tick 
+ * are iterated in no particular order.
+ * <p>
+ * The ledger may be read while receipts are filed. A reader sees at least the receipts filed 
+ * before it started, but may also see some of the ones filed during the read.
+ */
+public class ReceiptLedger extends AbstractCollection<Receipt> {
+	private static final int INITIAL_SHARD_CAPACITY = 64;
+	
+	private static final Comparator<Receipt> BY_ISSUED_TICK = 
+			(r1, r2) -> Integer.compare(r1.getIssuedTick(), r2.getIssuedTick());
+	
+	/** The shards of all of the threads that have filed receipts */
+	private final Queue<Shard> shards;
+	
+	/** The shard of the current thread */
+	private final ThreadLocal<Shard> threadShard;
+	
+	public ReceiptLedger() {
+		this.shards = new ConcurrentLinkedQueue<>();
+		this.threadShard = ThreadLocal.withInitial(() -> {
+			Shard shard = new Shard();
+			shards.add(shard);
+			return shard;
+		});
+	}
+	
+	/** Files the receipt in the shard of the current thread */
+	@Override
+	public boolean add(Receipt receipt) {
+		threadShard.get().append(receipt);
+		return true;
+	}
+	
+	@Override
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			size += shard.size;
+		}
+		return size;
+	}
+	
+	/** @return An iterator over a snapshot of the ledger, in the order of the issued tick */
+	@Override
+	public Iterator<Receipt> iterator() {
+		List<Receipt[]> sortedShards = new ArrayList<>();
+		for (Shard shard : shards) {
+			Receipt[] snapshot = shard.snapshot();
+			if (snapshot.length > 0) {
+				// Stable, and close to linear on a nearly sorted shard
+				Arrays.sort(snapshot, BY_ISSUED_TICK);
+				sortedShards.add(snapshot);
+			}
+		}
+		return new MergingIterator(sortedShards);
+	}
+	
+	/** The receipts filed by a single thread. Only that thread appends to it. */
+	private static class Shard {
+		/** Replaced by a larger copy when full, before the new receipt is counted in size */
+		private volatile Receipt[] receipts;
+		
+		/** The receipts before this index are filed, and visible to any thread that reads it */
+		private volatile int size;
+		
+		Shard() {
+			this.receipts = new Receipt[INITIAL_SHARD_CAPACITY];
+			this.size = 0;
+		}
+		
+		void append(Receipt receipt) {
+			int index = size;
+			if (index == receipts.length) {
+				receipts = Arrays.copyOf(receipts, index * 2);
+			}
+			receipts[index] = receipt;
+			// Publishes the receipt
+			size = index + 1;
+		}
+		
+		Receipt[] snapshot() {
+			// Size first - the array read after it holds at least as many receipts
+			int currentSize = size;
+			return Arrays.copyOf(receipts, currentSize);
+		}
+	}
+	
+	/** A k-way merge of sorted shards */
+	private static class MergingIterator implements Iterator<Receipt> {
+		/** The position of the iterator in a single shard */
+		private static class Cursor {
+			final Receipt[] receipts;
+			int next;
+			
+			Cursor(Receipt[] receipts) {
+				this.receipts = receipts;
+				this.next = 0;
+			}
+			
+			Receipt peek() {
+				return receipts[next];
+			}
+		}
+		
+		/** The cursors that aren't done yet, by the issued tick of their next receipt */
+		private final PriorityQueue<Cursor> cursors;
+		
+		MergingIterator(List<Receipt[]> sortedShards) {
+			this.cursors = new PriorityQueue<>(Math.max(1, sortedShards.size()), 
+					(c1, c2) -> BY_ISSUED_TICK.compare(c1.peek(), c2.peek()));
+			for (Receipt[] shard : sortedShards) {
+				cursors.add(new Cursor(shard));
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !cursors.isEmpty();
+		}
+		
+		@Override
+		public Receipt next() {
+			Cursor cursor = cursors.poll();
+			if (cursor == null) {
+				throw new NoSuchElementException();
+			}
+			Receipt receipt = cursor.receipts[cursor.next++];
+			if (cursor.next < cursor.receipts.length) {
+				cursors.add(cursor);
+			}
+			return receipt;
+		}
+	}
+}
@@ -1,64 +1,130 @@
 package bgu.spl.app;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** 
- * This class holds a linked list with the given items, and returns them in a round-robin fashion:
+ * This class holds an array with the given items, and returns them in a round-robin fashion:
  * Suppose A and B exist, and now A was returned. Now suppose a C was added.
  * The next order of returns should be B, C, A 
- * @note This class doesn't take care of synchronization. That is the caller's responsibility
+ * <p>
+ * The class is thread-safe. The items and the position of the last returned item are kept 
+ * together in an immutable state, which is replaced by compare-and-set on every change. So 
+ * getNext() is O(1), never takes a lock, and never applies a position to the wrong items. 
+ * Only add() and remove() are synchronized, with each other.
  */
 public class RoundRobinList<T> {
-	private List<T> items;
-	private int currentIndex;
+	private static final State EMPTY = new State(new Object[0], -1);
+	
+	/** The items and the position of the last returned item */
+	private final AtomicReference<State> state;
 	
 	public RoundRobinList() {
-		items = new LinkedList<>();
-		currentIndex = -1;
+		state = new AtomicReference<>(EMPTY);
 	}
 	
 	/** 
 	 * Add the element to the list, if it doesn't already exist
 	 */
-	public void add(T element) {
-		if (!items.contains(element)) {
-			items.add(element);
-		}
+	public synchronized void add(T element) {
+		State current;
+		State next;
+		do {
+			current = state.get();
+			if (indexOf(current.items, element) != -1) {
+				return;
+			}
+			
+			Object[] newItems = Arrays.copyOf(current.items, current.items.length + 1);
+			newItems[current.items.length] = element;
+			next = new State(newItems, current.index);
+		} while (!state.compareAndSet(current, next));
 	}
 	
 	/** 
 	 * Removes the element from the list
 	 */
-	public void remove(T element) {
-		int indexRemoved = items.indexOf(element);
-		if (indexRemoved != -1 && currentIndex > indexRemoved) {
-			// If our current index is after the removed index, we need to update it.
-			currentIndex--;
-		}
-		items.remove(element);
+	public synchronized void remove(T element) {
+		State current;
+		State next;
+		do {
+			current = state.get();
+			int indexRemoved = indexOf(current.items, element);
+			if (indexRemoved == -1) {
+				return;
+			}
+			
+			Object[] newItems = new Object[current.items.length - 1];
+			System.arraycopy(current.items, 0, newItems, 0, indexRemoved);
+			System.arraycopy(current.items, indexRemoved + 1, newItems, indexRemoved, 
+					newItems.length - indexRemoved);
+			
+			// If our current index is at or after the removed index, we need to update it so 
+			// that the item after the last returned one is still the next one to be returned.
+			int index = current.index >= indexRemoved ? current.index - 1 : current.index;
+			next = new State(newItems, index);
+		} while (!state.compareAndSet(current, next));
 	}
 	
 	/** 
-	 * @return The next element in the list
+	 * @return The next element in the list, or null if the list is empty
 	 */
+	@SuppressWarnings("unchecked")
 	public T getNext() {
-		if (isEmpty()) {
-			return null;
-		}
+		State current;
+		int next;
+		do {
+			current = state.get();
+			if (current.items.length == 0) {
+				return null;
+			}
+			next = current.index + 1;
+			if (next >= current.items.length) {
+				next = 0;
+			}
+		} while (!state.compareAndSet(current, new State(current.items, next)));
 		
-		currentIndex++;
-		if (currentIndex == items.size()) {
-			currentIndex = 0;
-		}
-		
-		return items.get(currentIndex);
+		return (T) current.items[next];
+	}
+	
+	/**
+	 * @return An unmodifiable view of the current items. Later changes to the list are not
+	 *         reflected in the returned view.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> items() {
+		return Collections.unmodifiableList(Arrays.asList((T[]) state.get().items));
 	}
 	
 	/**
 	 * @return true if the list is empty
 	 */
 	public boolean isEmpty() {
-		return items.isEmpty();
+		return state.get().items.length == 0;
+	}
+	
+	private static int indexOf(Object[] array, Object element) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i].equals(element)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** An immutable snapshot of the items, and the position of the last returned one in them */
+	private static final class State {
+		/** Never modify it - replace the state instead */
+		private final Object[] items;
+		
+		/** The index of the last returned item, or -1 if no item was returned yet */
+		private final int index;
+		
+		State(Object[] items, int index) {
+			this.items = items;
+			this.index = index;
+		}
 	}
 }
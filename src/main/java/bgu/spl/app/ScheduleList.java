@@ -30,6 +30,11 @@ public class ScheduleList<T extends Schedule> {
 		}
 	}
 	
+	/** Returns the ticks that have schedules */
+	public Set<Integer> getTicks() {
+		return Collections.unmodifiableSet(schedules.keySet());
+	}
+	
 	/** 
 	 * Returns a set of schedules for the given tick
 	 * If no schedules are set for that tick, an empty set is returned.
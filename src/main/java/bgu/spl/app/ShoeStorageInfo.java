@@ -1,17 +1,34 @@
 package bgu.spl.app;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import bgu.spl.app.Store.BuyResult;
+
+/**
+ * The storage info of a single shoe type. Thread-safe: the amount on storage and the discounted
+ * amount are packed into a single atomic long, so both are always updated together by a CAS,
+ * without a lock.
+ */
+@JsonAdapter(ShoeStorageInfo.ShoeStorageInfoSerializer.class)
 public class ShoeStorageInfo extends LoggableObject {
+	private static final long DISCOUNTED_AMOUNT_MASK = 0xFFFFFFFFL;
+	
 	private final String shoeType;
-	private int amountOnStorage;
-	private int discountedAmount;
+	
+	/** The amount on storage in the high 32 bits, and the discounted amount in the low 32 bits */
+	private final AtomicLong amounts;
 	
 	/**
 	 * Constructor - initializes discountedAmount to 0.
@@ -25,8 +42,7 @@ public class ShoeStorageInfo extends LoggableObject {
 	 */
 	public ShoeStorageInfo(String shoeType, int amountOnStorage, int discountedAmount) {
 		this.shoeType = shoeType;
-		this.amountOnStorage = amountOnStorage;
-		this.discountedAmount = discountedAmount;
+		this.amounts = new AtomicLong(pack(amountOnStorage, discountedAmount));
 	}
 	 
 	public String getShoeType() {
@@ -34,29 +50,49 @@ public class ShoeStorageInfo extends LoggableObject {
 	}
 	
 	public int getAmountOnStorage() {
-		return amountOnStorage;
+		return amountOnStorage(amounts.get());
 	}
 	
 	public int getDiscountedAmount() {
-		return discountedAmount;
+		return discountedAmount(amounts.get());
 	}
 	
 	public boolean isOnDiscount() {
-		return discountedAmount > 0;
+		return getDiscountedAmount() > 0;
 	}
 	
 	public boolean isOut() {
-		return amountOnStorage == 0;
+		return getAmountOnStorage() == 0;
 	}
 	
 	/**
 	 * Decrements the amount of the shoe. Also decrements the discountedAmount if the shoe is on discount.
 	 */
 	public void decrementAmount() {
-		if (this.isOnDiscount()) {
-			discountedAmount--;
-		}
-		amountOnStorage--;
+		long current;
+		do {
+			current = amounts.get();
+		} while (!amounts.compareAndSet(current, decremented(current)));
+	}
+	
+	/**
+	 * Atomically takes a single shoe, like {@link #decrementAmount()} - unless there is none, or 
+	 * onlyDiscount is true and the shoe isn't on discount.
+	 * @return The result of the purchase attempt, as described in {@link Store#take}
+	 */
+	public BuyResult take(boolean onlyDiscount) {
+		long current;
+		do {
+			current = amounts.get();
+			if (amountOnStorage(current) == 0) {
+				return BuyResult.NOT_IN_STOCK;
+			}
+			if (onlyDiscount && discountedAmount(current) == 0) {
+				return BuyResult.NOT_ON_DISCOUNT;
+			}
+		} while (!amounts.compareAndSet(current, decremented(current)));
+		
+		return discountedAmount(current) > 0 ? BuyResult.DISCOUNTED_PRICE : BuyResult.REGULAR_PRICE;
 	}
 	
 	/**
@@ -64,7 +100,11 @@ public class ShoeStorageInfo extends LoggableObject {
 	 * @param amount to add
 	 */
 	public void addAmount(int amount) {
-		amountOnStorage += amount;
+		long current;
+		do {
+			current = amounts.get();
+		} while (!amounts.compareAndSet(current, 
+				pack(amountOnStorage(current) + amount, discountedAmount(current))));
 	}
 	
 	/** 
@@ -72,9 +112,51 @@ public class ShoeStorageInfo extends LoggableObject {
 	 * @param amount of shoes to add discount to
 	 */
 	public void addDiscount(int amount) {
-		discountedAmount = Math.min(discountedAmount + amount, amountOnStorage);
+		addDiscount(amount, false);
+	}
+	
+	/** 
+	 * Like {@link #addDiscount(int)}, but only if the shoe isn't out
+	 * @return false if the shoe is out
+	 */
+	public boolean addDiscountIfInStock(int amount) {
+		return addDiscount(amount, true);
+	}
+	
+	private boolean addDiscount(int amount, boolean onlyIfInStock) {
+		long current;
+		int amountOnStorage;
+		do {
+			current = amounts.get();
+			amountOnStorage = amountOnStorage(current);
+			if (onlyIfInStock && amountOnStorage == 0) {
+				return false;
+			}
+		} while (!amounts.compareAndSet(current, 
+				pack(amountOnStorage, Math.min(discountedAmount(current) + amount, amountOnStorage))));
+		return true;
+	}
+	
+	/** @return The given amounts after decrementing them as described in {@link #decrementAmount()} */
+	private static long decremented(long amounts) {
+		int discountedAmount = discountedAmount(amounts);
+		if (discountedAmount > 0) {
+			discountedAmount--;
+		}
+		return pack(amountOnStorage(amounts) - 1, discountedAmount);
+	}
+	
+	private static long pack(int amountOnStorage, int discountedAmount) {
+		return ((long) amountOnStorage << 32) | (discountedAmount & DISCOUNTED_AMOUNT_MASK);
+	}
+	
+	private static int amountOnStorage(long amounts) {
+		return (int) (amounts >> 32);
 	}
 	
+	private static int discountedAmount(long amounts) {
+		return (int) amounts;
+	}
 	
 	/**
 	 * Implementation of our own Gson deserializer, since our members have a slightly different
@@ -90,4 +172,49 @@ public class ShoeStorageInfo extends LoggableObject {
 									   jsonObj.get("amount").getAsInt());
 		}
 	}
+	
+	/**
+	 * Writes the amounts as if they were plain fields, the way the store is logged and printed. 
+	 * Also reads them back in the same format.
+	 */
+	public static class ShoeStorageInfoSerializer extends TypeAdapter<ShoeStorageInfo> {
+		@Override
+		public void write(JsonWriter out, ShoeStorageInfo info) throws IOException {
+			if (info == null) {
+				out.nullValue();
+				return;
+			}
+			long amounts = info.amounts.get();
+			out.beginObject();
+			out.name("shoeType").value(info.shoeType);
+			out.name("amountOnStorage").value(amountOnStorage(amounts));
+			out.name("discountedAmount").value(discountedAmount(amounts));
+			out.endObject();
+		}
+		
+		@Override
+		public ShoeStorageInfo read(JsonReader in) throws IOException {
+			String shoeType = null;
+			int amountOnStorage = 0;
+			int discountedAmount = 0;
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "shoeType":
+					shoeType = in.nextString();
+					break;
+				case "amountOnStorage":
+					amountOnStorage = in.nextInt();
+					break;
+				case "discountedAmount":
+					discountedAmount = in.nextInt();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return new ShoeStorageInfo(shoeType, amountOnStorage, discountedAmount);
+		}
+	}
 }
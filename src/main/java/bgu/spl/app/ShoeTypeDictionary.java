@@ -0,0 +1,26 @@
+package bgu.spl.app;
+
+/**
+ * A singleton {@link NameDictionary} of the shoe types. The ids let the store and the messages 
+ * index arrays by shoe type instead of hashing its name at every hop.
+ * <p>
+ * The initial storage is added first, when the store loads it. Any other type is added the 
+ * first time it is asked for.
+ */
+public class ShoeTypeDictionary extends NameDictionary {
+	
+	/** The singleton holder of our class */
+	private static class SingletonHolder {
+		private static ShoeTypeDictionary instance = new ShoeTypeDictionary();
+	}
+	
+	private ShoeTypeDictionary() {
+	}
+	
+	/**
+	 * Returns the singleton instance of the dictionary
+	 */
+	public static ShoeTypeDictionary getInstance() {
+		return SingletonHolder.instance;
+	}
+}
@@ -1,9 +1,8 @@
 package bgu.spl.app;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import bgu.spl.app.messages.ManufacturingOrderRequest;
 import bgu.spl.app.messages.RestockRequest;
@@ -30,14 +29,14 @@ public class StockOrderList extends LoggableObject {
 		}
 	}
 	
-	/** Maps between a shoe type and its awaiting orders */
-	private Map<String, List<StockOrderInfo>> stockOrders;
+	/** The awaiting orders of every shoe type, indexed by its id in the ShoeTypeDictionary */
+	private List<List<StockOrderInfo>> stockOrders;
 	
 	/** 
 	 * Constructor. Initializes an empty order list
 	 */
 	public StockOrderList() {
-		stockOrders = new HashMap<>();
+		stockOrders = new ArrayList<>();
 	}
 	
 	/** 
@@ -45,7 +44,7 @@ public class StockOrderList extends LoggableObject {
 	 * @return True if succeeded, or false if a new order has to be made 
 	 */
 	public boolean tryToReserveFromExistingOrders(RestockRequest req) {
-		List<StockOrderInfo> orders = stockOrders.get(req.getShoeType());
+		List<StockOrderInfo> orders = getOrders(req.getShoeTypeId());
 		if (orders != null) {
 			for (StockOrderInfo order : orders) {
 				if (order.restockRequests.size() < order.manufactureRequest.getAmount()) {
@@ -60,10 +59,14 @@ public class StockOrderList extends LoggableObject {
 	 
     /** Adds a new order to the list */
 	public void addOrder(RestockRequest req, ManufacturingOrderRequest order) {
-		List<StockOrderInfo> orders = stockOrders.get(order.getShoeType());
+		int shoeTypeId = order.getShoeTypeId();
+		while (stockOrders.size() <= shoeTypeId) {
+			stockOrders.add(null);
+		}
+		List<StockOrderInfo> orders = stockOrders.get(shoeTypeId);
 		if (orders == null) {
 			orders = new LinkedList<>();
-			stockOrders.put(order.getShoeType(), orders);
+			stockOrders.set(shoeTypeId, orders);
 		}
 		orders.add(new StockOrderInfo(req, order));
 	}
@@ -73,13 +76,20 @@ public class StockOrderList extends LoggableObject {
 	 * the list, and returns the list of awaiting RestockRequests for that order
 	 */
 	public List<RestockRequest> removeOrder(ManufacturingOrderRequest manufactureRequest) throws IllegalStateException {
-		List<StockOrderInfo> orders = stockOrders.get(manufactureRequest.getShoeType());
-		for (StockOrderInfo order : orders) {
-			if (order.manufactureRequest == manufactureRequest) {
-				orders.remove(order);
-				return order.restockRequests;
+		List<StockOrderInfo> orders = getOrders(manufactureRequest.getShoeTypeId());
+		if (orders != null) {
+			for (StockOrderInfo order : orders) {
+				if (order.manufactureRequest == manufactureRequest) {
+					orders.remove(order);
+					return order.restockRequests;
+				}
 			}
 		}
 		throw new IllegalStateException();
 	}
+	
+	/** @return The awaiting orders of the given shoe type, or null if it never had any */
+	private List<StockOrderInfo> getOrders(int shoeTypeId) {
+		return shoeTypeId < stockOrders.size() ? stockOrders.get(shoeTypeId) : null;
+	}
 }
@@ -1,26 +1,44 @@
 package bgu.spl.app;
 
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import bgu.spl.mics.Log;
+
 /**
  * A singleton that represents the shoe store 
  */
 public class Store extends LoggableObject {
-	/** A map between shoe type, and its storage info */
-	private Map<String, ShoeStorageInfo> shoes;
+	/** 
+	 * The storage info of every shoe type, indexed by its id in the ShoeTypeDictionary, or null
+	 * for a type that was never added. Every storage info is updated atomically on its own, so 
+	 * the shoe types don't contend with each other. A shoe type that is out stays in the array, 
+	 * so a concurrent add() can't be lost, but is treated as missing.
+	 * <p>
+	 * Copy-on-write: new shoe types are rare, and looking a type up then takes no lock.
+	 */
+	private volatile ShoeStorageInfo[] shoes;
+	
+	/** The receipts, iterated in the order of the issued tick count. Filing takes no lock. */
+	private ReceiptLedger receipts;
+	
+	/** 
+	 * Optional. When set, the receipts are filed in it instead of in the ledger, so they don't 
+	 * stay on the heap. Only the receipts filed in this run are printed, even if the journal 
+	 * recovered older ones. Set before the services start. Transient so it isn't logged.
+	 */
+	private transient ReceiptJournal receiptJournal;
 	
 	/** 
-	 * A list of the receipts, sorted by the issued tick count. Note that
-	 * this is not really a "set" - there is no protection against multiple insertions
-	 * of the same receipt. For now this is enough as our program never files the same
-	 * receipt more than once 
+	 * Guards adding new shoe types. A lock rather than a monitor, so a virtual thread that 
+	 * waits for it doesn't pin its carrier thread. Transient so it isn't logged.
 	 */
-	private SortedSet<Receipt> receipts;
+	private transient Lock newShoesLock;
 	
 	/** The singleton holder of our class */
 	private static class SingletonHolder {
@@ -39,18 +57,9 @@ public class Store extends LoggableObject {
 	 * Constructor. Initializes an empty store
 	 */
 	public Store() {
-		Comparator<Receipt> compareByIssuedTick = new Comparator<Receipt>() {
-			@Override
-			public int compare(Receipt r1, Receipt r2) {
-				 if(r1.getIssuedTick() == r2.getIssuedTick())
-					 // If the issued tick is equal - return a random one of them.
-		             return 1;
-		         return r1.getIssuedTick() < r2.getIssuedTick() ? -1 : 1;
-			}
-		};
-		
-		shoes = new HashMap<>();
-		receipts = new TreeSet<>(compareByIssuedTick);
+		shoes = new ShoeStorageInfo[0];
+		receipts = new ReceiptLedger();
+		newShoesLock = new ReentrantLock();
 	}
 	
 	/**
@@ -61,7 +70,8 @@ public class Store extends LoggableObject {
 	}
 	
 	/**
-	 * Loads the given shoes to the store
+	 * Loads the given shoes to the store. Their types are the first ones added to the 
+	 * ShoeTypeDictionary, so they get the lowest ids.
 	 * @param storage The storage to load
 	 */
 	public void load(ShoeStorageInfo[] storage) {
@@ -77,29 +87,23 @@ public class Store extends LoggableObject {
 	 * @return A BuyResult according to the state of the wanted shoe
 	 */
 	public BuyResult take(String shoeType, boolean onlyDiscount) {
-		synchronized (shoes) {
-			ShoeStorageInfo info = shoes.get(shoeType);
-			if (info == null) {
-				return BuyResult.NOT_IN_STOCK;
-			} else {
-				boolean isOnDiscount = info.isOnDiscount();
-				if (!isOnDiscount && onlyDiscount) {
-					return BuyResult.NOT_ON_DISCOUNT;
-				}
-				
-				log("Removing shoe of type: " + shoeType);
-				info.decrementAmount();
-				if (info.isOut()) {
-					shoes.remove(shoeType);
-				}
-				
-				if (isOnDiscount) {
-					return BuyResult.DISCOUNTED_PRICE;
-				} else {
-					return BuyResult.REGULAR_PRICE;
-				}
-			}
+		return take(ShoeTypeDictionary.getInstance().idOf(shoeType), onlyDiscount);
+	}
+	
+	/**
+	 * Like {@link #take(String, boolean)}, with the id of the shoe type in the ShoeTypeDictionary
+	 */
+	public BuyResult take(int shoeTypeId, boolean onlyDiscount) {
+		ShoeStorageInfo info = getInfo(shoeTypeId);
+		if (info == null) {
+			return BuyResult.NOT_IN_STOCK;
 		}
+		
+		BuyResult result = info.take(onlyDiscount);
+		if (result == BuyResult.REGULAR_PRICE || result == BuyResult.DISCOUNTED_PRICE) {
+			log(() -> "Removed shoe of type: " + info.getShoeType());
+		}
+		return result;
 	}
 	
 	/**
@@ -108,19 +112,24 @@ public class Store extends LoggableObject {
 	 * @param amount The amount of shoes to add
 	 */
 	public void add(String shoeType, int amount) {
+		add(ShoeTypeDictionary.getInstance().idOf(shoeType), amount);
+	}
+	
+	/**
+	 * Like {@link #add(String, int)}, with the id of the shoe type in the ShoeTypeDictionary
+	 */
+	public void add(int shoeTypeId, int amount) {
 		if (amount <= 0) {
 			return;
 		}
 		
-		synchronized (shoes) {
-			ShoeStorageInfo info = shoes.get(shoeType);
-			log("Adding " + amount + " shoes to " + shoeType);
-			if (info == null) {
-				shoes.put(shoeType, new ShoeStorageInfo(shoeType, amount));
-			} else {
-				info.addAmount(amount);
-			}
+		ShoeStorageInfo info = getInfo(shoeTypeId);
+		if (info == null) {
+			info = addInfo(shoeTypeId);
 		}
+		info.addAmount(amount);
+		String shoeType = info.getShoeType();
+		log(() -> "Added " + amount + " shoes to " + shoeType);
 	}
 	
 	/**
@@ -129,28 +138,44 @@ public class Store extends LoggableObject {
 	 * @param amount The amount of shoes to discount
 	 */
 	public void addDiscount(String shoeType, int amount) {
+		addDiscount(ShoeTypeDictionary.getInstance().idOf(shoeType), amount);
+	}
+	
+	/**
+	 * Like {@link #addDiscount(String, int)}, with the id of the shoe type in the ShoeTypeDictionary
+	 */
+	public void addDiscount(int shoeTypeId, int amount) {
 		if (amount <= 0) {
 			return;
 		}
 		
-		synchronized (shoes) {
-			ShoeStorageInfo info = shoes.get(shoeType);
-			if (info == null) {
-				log("Failed to add " + amount + " discount to " + shoeType + ": shoe doesn't exist");
-			} else {
-				log("Adding " + amount + " discount to " + shoeType);
-				info.addDiscount(amount);
-			}
+		ShoeStorageInfo info = getInfo(shoeTypeId);
+		boolean exists = info != null && info.addDiscountIfInStock(amount);
+		String shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		if (exists) {
+			log(() -> "Added " + amount + " discount to " + shoeType);
+		} else {
+			log(() -> "Failed to add " + amount + " discount to " + shoeType + ": shoe doesn't exist");
 		}
 	}
 	
+	/**
+	 * Files the receipts in the given journal from now on, instead of keeping them on the heap.
+	 * Must be called before any receipt is filed.
+	 */
+	public void setReceiptJournal(ReceiptJournal receiptJournal) {
+		this.receiptJournal = receiptJournal;
+	}
+	
 	/**
 	 * Files the given receipt in the store
 	 * @param receipt The receipt to file in the store 
 	 */
 	public void file(Receipt receipt) {
-		synchronized (receipts) {
-			log("filing receipt: " + receipt);
+		log(() -> "filing receipt: " + receipt);
+		if (receiptJournal != null) {
+			receiptJournal.append(receipt);
+		} else {
 			receipts.add(receipt);
 		}
 	}
@@ -159,23 +184,74 @@ public class Store extends LoggableObject {
 	 * Prints the contents of the store (receipts and shoes)
 	 */
 	public void print() {
-		synchronized (shoes) {
-			String shoesInfo = "Storage: \n[\n";
-			shoesInfo += shoes.values().stream().map(ShoeStorageInfo::toString).collect(Collectors.joining("\n"));
-			shoesInfo += "\n]";
-			System.out.println(shoesInfo);
+		// So the log lines that haven't been written yet don't end up in the middle
+		Log.flush();
+		System.out.println();
+		String shoesInfo = "Storage: \n[\n";
+		shoesInfo += Arrays.stream(shoes)
+				.filter(info -> info != null && !info.isOut())
+				.map(ShoeStorageInfo::toString)
+				.collect(Collectors.joining("\n"));
+		shoesInfo += "\n]";
+		System.out.println(shoesInfo);
+		
+		if (receiptJournal != null) {
+			printJournalReceipts();
+			return;
 		}
 		
-		synchronized (receipts) {
-			String receiptsInfo = "Receipts (" + receipts.size() + "): \n[\n";
-			receiptsInfo += receipts.stream().map(Receipt::toString).collect(Collectors.joining("\n"));
-			receiptsInfo += "\n]";
-			System.out.println(receiptsInfo);
-			System.out.println("No. of receipts: " + receipts.size());
+		// A single snapshot, so the count matches the printed receipts
+		List<Receipt> receiptsSnapshot = new ArrayList<>(receipts);
+		String receiptsInfo = "Receipts (" + receiptsSnapshot.size() + "): \n[\n";
+		receiptsInfo += receiptsSnapshot.stream().map(Receipt::toString).collect(Collectors.joining("\n"));
+		receiptsInfo += "\n]";
+		System.out.println(receiptsInfo);
+		System.out.println("No. of receipts: " + receiptsSnapshot.size());
+	}
+	
+	/** 
+	 * Prints the receipts of this run straight from the journal, one at a time, in the same 
+	 * format as the ledger's. Only an index of the receipts is kept on the heap.
+	 */
+	private void printJournalReceipts() {
+		ReceiptJournal.OrderedCursor cursor = receiptJournal.sessionCursorByIssuedTick();
+		System.out.println("Receipts (" + cursor.size() + "): \n[");
+		if (cursor.size() == 0) {
+			System.out.println();
+		}
+		while (cursor.next()) {
+			System.out.println(cursor.toReceipt());
+		}
+		System.out.println("]");
+		System.out.println("No. of receipts: " + cursor.size());
+	}
+	
+	/** @return The storage info of the given shoe type, or null if it was never added */
+	private ShoeStorageInfo getInfo(int shoeTypeId) {
+		ShoeStorageInfo[] currentShoes = shoes;
+		return shoeTypeId < currentShoes.length ? currentShoes[shoeTypeId] : null;
+	}
+	
+	/** Adds an empty storage info for the given shoe type, unless one was added concurrently */
+	private ShoeStorageInfo addInfo(int shoeTypeId) {
+		newShoesLock.lock();
+		try {
+			ShoeStorageInfo info = getInfo(shoeTypeId);
+			if (info == null) {
+				String shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+				info = new ShoeStorageInfo(shoeType, 0);
+				ShoeStorageInfo[] newShoes = Arrays.copyOf(shoes, 
+						Math.max(shoes.length, ShoeTypeDictionary.getInstance().size()));
+				newShoes[shoeTypeId] = info;
+				shoes = newShoes;
+			}
+			return info;
+		} finally {
+			newShoesLock.unlock();
 		}
 	}
 	
-	private void log(String msg) {
-		System.out.println("Store: " + msg);
+	private void log(Supplier<String> msg) {
+		Log.log(Log.Level.INFO, "Store", msg);
 	}
 }
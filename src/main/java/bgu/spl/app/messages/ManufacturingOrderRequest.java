@@ -2,6 +2,7 @@ package bgu.spl.app.messages;
 
 import bgu.spl.app.LoggableObject;
 import bgu.spl.app.Receipt;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.mics.Request;
 
 /**
@@ -9,12 +10,20 @@ import bgu.spl.mics.Request;
  */
 public class ManufacturingOrderRequest extends LoggableObject implements Request<Receipt> {
 	private final String shoeType;
+	
+	/** The id of shoeType in the ShoeTypeDictionary */
+	private final transient int shoeTypeId;
 	private final int amount;
 	private final int tick;
 	
 	public ManufacturingOrderRequest(String shoeType, int amount, int tick) {
+		this(ShoeTypeDictionary.getInstance().idOf(shoeType), amount, tick);
+	}
+	
+	public ManufacturingOrderRequest(int shoeTypeId, int amount, int tick) {
 		super();
-		this.shoeType = shoeType;
+		this.shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		this.shoeTypeId = shoeTypeId;
 		this.amount = amount;
 		this.tick = tick;
 	}
@@ -22,6 +31,10 @@ public class ManufacturingOrderRequest extends LoggableObject implements Request
 	public String getShoeType() {
 		return shoeType;
 	}
+	
+	public int getShoeTypeId() {
+		return shoeTypeId;
+	}
 
 	public int getAmount() {
 		return amount;
@@ -1,19 +1,29 @@
 package bgu.spl.app.messages;
 
 import bgu.spl.app.LoggableObject;
-import bgu.spl.mics.Broadcast;
+import bgu.spl.app.ShoeTypeDictionary;
+import bgu.spl.mics.KeyedBroadcast;
 
 /**
- * Is sent by the ManagementService when a new discount is being applied
+ * Is sent by the ManagementService when a new discount is being applied. Keyed by the id of 
+ * the shoe type, so it only reaches the clients that wish for that shoe.
  */
-public class NewDiscountBroadcast extends LoggableObject implements Broadcast {
+public class NewDiscountBroadcast extends LoggableObject implements KeyedBroadcast {
 	private final String shoeType;
+	
+	/** The id of shoeType in the ShoeTypeDictionary */
+	private final transient int shoeTypeId;
 	private final int discountAmount;
 	private final int tick;
 	
 	public NewDiscountBroadcast(String shoeType, int discountAmount, int tick) {
+		this(ShoeTypeDictionary.getInstance().idOf(shoeType), discountAmount, tick);
+	}
+	
+	public NewDiscountBroadcast(int shoeTypeId, int discountAmount, int tick) {
 		super();
-		this.shoeType = shoeType;
+		this.shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		this.shoeTypeId = shoeTypeId;
 		this.discountAmount = discountAmount;
 		this.tick = tick;
 	}
@@ -21,6 +31,10 @@ public class NewDiscountBroadcast extends LoggableObject implements Broadcast {
 	public String getShoeType() {
 		return shoeType;
 	}
+	
+	public int getShoeTypeId() {
+		return shoeTypeId;
+	}
 
 	public int getDiscountAmount() {
 		return discountAmount;
@@ -28,6 +42,11 @@ public class NewDiscountBroadcast extends LoggableObject implements Broadcast {
 
 	public int getTick() {
 		return tick;
-	}	
+	}
+	
+	@Override
+	public Object getKey() {
+		return shoeTypeId;
+	}
 	
 }
@@ -2,6 +2,7 @@ package bgu.spl.app.messages;
 
 import bgu.spl.app.LoggableObject;
 import bgu.spl.app.Receipt;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.mics.Request;
 
 /**
@@ -9,13 +10,21 @@ import bgu.spl.mics.Request;
  */
 public class PurchaseOrderRequest extends LoggableObject implements Request<Receipt> {
 	private final String shoeType;
+	
+	/** The id of shoeType in the ShoeTypeDictionary */
+	private final transient int shoeTypeId;
 	private final String customer;
 	private final boolean discountOnly;
 	private final int tickCount;
 	
 	public PurchaseOrderRequest(String shoeType, String customer, boolean discountOnly, int tickCount) {
+		this(ShoeTypeDictionary.getInstance().idOf(shoeType), customer, discountOnly, tickCount);
+	}
+	
+	public PurchaseOrderRequest(int shoeTypeId, String customer, boolean discountOnly, int tickCount) {
 		super();
-		this.shoeType = shoeType;
+		this.shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		this.shoeTypeId = shoeTypeId;
 		this.customer = customer;
 		this.discountOnly = discountOnly;
 		this.tickCount = tickCount;
@@ -24,6 +33,10 @@ public class PurchaseOrderRequest extends LoggableObject implements Request<Rece
 	public String getShoeType() {
 		return shoeType;
 	}
+	
+	public int getShoeTypeId() {
+		return shoeTypeId;
+	}
 
 	public String getCustomer() {
 		return customer;
@@ -1,6 +1,7 @@
 package bgu.spl.app.messages;
 
 import bgu.spl.app.LoggableObject;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.mics.Request;
 
 /**
@@ -9,11 +10,19 @@ import bgu.spl.mics.Request;
 public class RestockRequest extends LoggableObject implements Request<Boolean> {
 	/** The type of the shoe to order */
 	private final String shoeType;
+	
+	/** The id of shoeType in the ShoeTypeDictionary */
+	private final transient int shoeTypeId;
 	private final int tick;
 
 	public RestockRequest(String shoeType, int tick) {
+		this(ShoeTypeDictionary.getInstance().idOf(shoeType), tick);
+	}
+	
+	public RestockRequest(int shoeTypeId, int tick) {
 		super();
-		this.shoeType = shoeType;
+		this.shoeType = ShoeTypeDictionary.getInstance().nameOf(shoeTypeId);
+		this.shoeTypeId = shoeTypeId;
 		this.tick = tick;
 	}
 
@@ -21,6 +30,10 @@ public class RestockRequest extends LoggableObject implements Request<Boolean> {
 		return shoeType;
 	}
 	
+	public int getShoeTypeId() {
+		return shoeTypeId;
+	}
+	
 	public int getTick() {
 		return this.tick;
 	}
@@ -1,10 +1,11 @@
 package bgu.spl.app.messages;
 
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.ControlMessage;
 
 /**
  * This broadcast is sent by the TimeService when the services should terminate.
- * All services should subscribe to this message.
+ * All services should subscribe to this message. Taken before the other messages in the queues.
  */
-public class TerminateBroadcast implements Broadcast {
+public class TerminateBroadcast implements Broadcast, ControlMessage {
 }
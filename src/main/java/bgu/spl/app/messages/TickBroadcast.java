@@ -1,12 +1,16 @@
 package bgu.spl.app.messages;
 
 import bgu.spl.app.LoggableObject;
-import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.CoalescibleBroadcast;
+import bgu.spl.mics.KeyedBroadcast;
 
 /**
- * Is sent on every tick by the TimeService
+ * Is sent on every tick by the TimeService. Keyed by the tick, so services that only act on
+ * a few ticks can subscribe to just those ticks, instead of getting every tick.
+ * Coalescible, so a lagging service gets only the latest tick - the handlers must act on all 
+ * of the ticks that have passed since the previous TickBroadcast they got.
  */
-public class TickBroadcast extends LoggableObject implements Broadcast {
+public class TickBroadcast extends LoggableObject implements KeyedBroadcast, CoalescibleBroadcast {
 	private final int tick;
 
 	public TickBroadcast(int tick) {
@@ -18,4 +22,8 @@ public class TickBroadcast extends LoggableObject implements Broadcast {
 		return tick;
 	}
 	
+	@Override
+	public Object getKey() {
+		return tick;
+	}
 }
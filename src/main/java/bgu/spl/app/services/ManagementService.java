@@ -15,6 +15,7 @@ import com.google.gson.reflect.TypeToken;
 import bgu.spl.app.DiscountSchedule;
 import bgu.spl.app.Receipt;
 import bgu.spl.app.ScheduleList;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.app.StockOrderList;
 import bgu.spl.app.Store;
 import bgu.spl.app.messages.ManufacturingOrderRequest;
@@ -28,7 +29,10 @@ import bgu.spl.app.messages.TickBroadcast;
 public class ManagementService extends TickListenerService {
 	private static final String SERVICE_NAME = "manager";
 	
-	/** Contains the awaiting stock orders */
+	/** 
+	 * Contains the awaiting stock orders. Only touched from our own callbacks, which all run
+	 * on our event loop, so it needs no locking.
+	 */
 	private StockOrderList awaitingOrders;
 	
 	/** Maps between a tick, and the list of DiscountSchedules to execute at that tick */
@@ -61,60 +65,57 @@ public class ManagementService extends TickListenerService {
 	@Override
 	protected void handleTickBroadcast(TickBroadcast b) {
 		super.handleTickBroadcast(b);
-		Set<DiscountSchedule> schedules = discountSchedules.getSchedulesForTick(b.getTick());
-		for (DiscountSchedule schedule : schedules) {
-			log("DiscountSchedule occurred: " + schedule);
-			Store.getInstance().addDiscount(schedule.getShoeType(), schedule.getAmount());
-			NewDiscountBroadcast discountMsg = new NewDiscountBroadcast(
-					schedule.getShoeType(), 
-					schedule.getAmount(),
-					getCurrentTick());
-			log("Sending NewDiscountBroadcast: " + discountMsg);
-			sendBroadcast(discountMsg);
+		for (int tick = getPreviousTick() + 1; tick <= b.getTick(); tick++) {
+			Set<DiscountSchedule> schedules = discountSchedules.getSchedulesForTick(tick);
+			for (DiscountSchedule schedule : schedules) {
+				log(() -> "DiscountSchedule occurred: " + schedule);
+				int shoeTypeId = ShoeTypeDictionary.getInstance().idOf(schedule.getShoeType());
+				Store.getInstance().addDiscount(shoeTypeId, schedule.getAmount());
+				NewDiscountBroadcast discountMsg = new NewDiscountBroadcast(
+						shoeTypeId, 
+						schedule.getAmount(),
+						tick);
+				log(() -> "Sending NewDiscountBroadcast: " + discountMsg);
+				sendBroadcast(discountMsg);
+			}
 		}
 	}
 	
 	private void handleRestockRequest(RestockRequest req) {
 		updateCurrentTick(req.getTick());
-		synchronized (awaitingOrders) {
-			log("Handling RestockRequest: " + req);
-			if (awaitingOrders.tryToReserveFromExistingOrders(req)) {
-				log("Successfully reserved from an existing order");
+		log(() -> "Handling RestockRequest: " + req);
+		if (awaitingOrders.tryToReserveFromExistingOrders(req)) {
+			log("Successfully reserved from an existing order");
+		} else {
+			// No awaiting stock order with free shoes was found. Make a new order
+			ManufacturingOrderRequest order = new ManufacturingOrderRequest(
+					req.getShoeTypeId(), getCurrentTick() % 5 + 1, getCurrentTick());
+			
+			log(() -> "Failed to reserve from an existing order. Issuing a ManufacturingOrderRequest: " + order);
+			if (sendRequest(order, (receipt) -> handleManufacturingOrderCompleted(order, receipt))) {
+				awaitingOrders.addOrder(req, order);
 			} else {
-				// No awaiting stock order with free shoes was found. Make a new order
-				ManufacturingOrderRequest order = new ManufacturingOrderRequest(
-						req.getShoeType(), getCurrentTick() % 5 + 1, getCurrentTick());
-				
-				log("Failed to reserve from an existing order. Issuing a ManufacturingOrderRequest: " + order);
-				if (sendRequest(order, (receipt) -> handleManufacturingOrderCompleted(order, receipt))) {
-					awaitingOrders.addOrder(req, order);
-				} else {
-					log("No handler found for ManufacturingOrderRequest: " + order);
-					complete(req, false);
-				}
+				log(() -> "No handler found for ManufacturingOrderRequest: " + order);
+				complete(req, false);
 			}
 		}
 	}
 	
 	private void handleManufacturingOrderCompleted(ManufacturingOrderRequest req,
 											       Receipt receipt) {
-		log("Manufacturing request completed. Request: " + req + ". Receipt: " + receipt);
+		log(() -> "Manufacturing request completed. Request: " + req + ". Receipt: " + receipt);
 		Store.getInstance().file(receipt);
 		
-		// Synchronize awaitingOrders until the actual shoes were added to the store. Or else,
-		// a race could occur.
-		List<RestockRequest> requests;
-		synchronized (awaitingOrders) {
-			requests = awaitingOrders.removeOrder(req);
-		
-			int shoesToAdd = req.getAmount() - requests.size();
-			if (shoesToAdd > 0) {
-				Store.getInstance().add(req.getShoeType(), shoesToAdd);
-			}
+		// The shoes are added to the store in the same callback that removes the order, so no
+		// RestockRequest can reserve from this order in between.
+		List<RestockRequest> requests = awaitingOrders.removeOrder(req);
+		int shoesToAdd = req.getAmount() - requests.size();
+		if (shoesToAdd > 0) {
+			Store.getInstance().add(req.getShoeTypeId(), shoesToAdd);
 		}
 		
 		for (RestockRequest r : requests) {
-			log("Completing RestockRequest: " + r);
+			log(() -> "Completing RestockRequest: " + r);
 			complete(r, true);
 		}
 	}
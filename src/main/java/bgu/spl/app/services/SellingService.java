@@ -7,7 +7,8 @@ import bgu.spl.app.Store;
 import bgu.spl.app.Store.BuyResult;
 import bgu.spl.app.messages.PurchaseOrderRequest;
 import bgu.spl.app.messages.RestockRequest;
-import bgu.spl.mics.Callback;
+import bgu.spl.mics.Log;
+import bgu.spl.mics.RoutingPolicy;
 
 /**
  * Represents a seller in the store. For more explanations see the instructions
@@ -20,13 +21,15 @@ public class SellingService extends TickListenerService {
 	@Override
 	protected void initialize() {
 		super.initialize();
-		this.subscribeRequest(PurchaseOrderRequest.class, (request) ->  handlePurchaseOrderRequest(request));
+		// The sellers are interchangeable, so they all take purchase orders from one shared queue
+		this.subscribeRequest(PurchaseOrderRequest.class, (request) ->  handlePurchaseOrderRequest(request),
+				RoutingPolicy.WORK_GROUP);
 	}
 	
 	private void handlePurchaseOrderRequest(PurchaseOrderRequest request) {
 		updateCurrentTick(request.getTickCount());
-		log("Handling PurchaseOrderRequest: " + request);
-		BuyResult result = Store.getInstance().take(request.getShoeType(), request.isDiscountOnly());
+		log(() -> "Handling PurchaseOrderRequest: " + request);
+		BuyResult result = Store.getInstance().take(request.getShoeTypeId(), request.isDiscountOnly());
 		
 		switch (result) {
 		case REGULAR_PRICE:
@@ -43,32 +46,53 @@ public class SellingService extends TickListenerService {
 				return;
 			}
 			
-			Callback<Boolean> handleRestockAnswer = new Callback<Boolean>() {
-				@Override
-				public void call(Boolean res) {
-					if (res) {
-						log("RestockRequest succeeded for " + request + ". Handling the PurchaseOrderRequest now");
-						completePurchase(request, result);
-					} else {
-						log("RestockRequest failed for " + request + ". Completing PurchaseOrderRequest with null");
-						complete(request, null);
-					}
+			log(() -> "No shoe of required type. Issuing RestockRequest for " + request);
+			RestockRequest restockReq = new RestockRequest(request.getShoeTypeId(), getCurrentTick());
+			sendRequestAsync(restockReq).whenComplete((res, error) -> {
+				// whenComplete swallows exceptions, so one must never leave the customer waiting
+				try {
+					handleRestockResult(request, result, restockReq, res, error);
+				} catch (RuntimeException e) {
+					Log.log(Log.Level.ERROR, getName(), () -> "Failed to handle the result of " + restockReq 
+							+ ": " + e + ". Completing PurchaseOrderRequest with null");
+					complete(request, null);
 				}
-			};
-			log("No shoe of required type. Issuing RestockRequest for " + request);
-			RestockRequest restockReq = new RestockRequest(request.getShoeType(), getCurrentTick());
-			if (!sendRequest(restockReq, handleRestockAnswer)) {
-				log("No handler found for RestockRequest: " + restockReq);
-				complete(request, null);
-			}
+			});
 			break;
 		}
 	}
 	
+	private void handleRestockResult(PurchaseOrderRequest request, BuyResult result, 
+			RestockRequest restockReq, Boolean res, Throwable error) {
+		if (error != null) {
+			Log.log(Log.Level.WARN, getName(), () -> "RestockRequest " + restockReq + " failed: " + error
+					+ ". Completing PurchaseOrderRequest with null");
+			complete(request, null);
+		} else if (Boolean.TRUE.equals(res)) {
+			log(() -> "RestockRequest succeeded for " + request + ". Handling the PurchaseOrderRequest now");
+			completePurchase(request, result);
+		} else {
+			// A null result means the RestockRequest was dropped or timed out
+			log(() -> "RestockRequest failed for " + request + ". Completing PurchaseOrderRequest with null");
+			complete(request, null);
+		}
+	}
+	
+	/** 
+	 * Files a receipt for the purchase and completes the request with it. If filing fails, the
+	 * request is still completed - with null - so the customer isn't left waiting.
+	 */
 	private void completePurchase(PurchaseOrderRequest request, BuyResult result) {
-		Receipt receipt = new Receipt(getName(), request.getCustomer(), request.getShoeType(),
+		Receipt receipt = new Receipt(getName(), request.getCustomer(), request.getShoeTypeId(),
 				result == BuyResult.DISCOUNTED_PRICE, getCurrentTick(), request.getTickCount(), 1);
-		Store.getInstance().file(receipt);
+		try {
+			Store.getInstance().file(receipt);
+		} catch (RuntimeException e) {
+			Log.log(Log.Level.ERROR, getName(), () -> "Failed to file " + receipt + ": " + e
+					+ ". Completing PurchaseOrderRequest with null");
+			complete(request, null);
+			return;
+		}
 		complete(request, receipt);
 	}
 }
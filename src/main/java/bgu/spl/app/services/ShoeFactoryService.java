@@ -12,6 +12,10 @@ import bgu.spl.app.messages.TickBroadcast;
  * Represents our store's shoe factory. Handles ManufacturingOrderRequests
  */
 public class ShoeFactoryService extends TickListenerService {
+	/** 
+	 * The orders waiting to be manufactured. Only touched from our own callbacks, which all run
+	 * on our event loop, so it needs no locking.
+	 */
 	private Queue<ManufacturingOrderRequest> awaitingOrders;
 	
 	/** 
@@ -36,33 +40,37 @@ public class ShoeFactoryService extends TickListenerService {
 	@Override
 	protected void handleTickBroadcast(TickBroadcast b) {
 		super.handleTickBroadcast(b);
-		synchronized (awaitingOrders) {
-			if (!awaitingOrders.isEmpty()) {
-				if (ticksLeftForCurrentOrder == 0) {
-					ManufacturingOrderRequest finishedOrder = awaitingOrders.poll();
-					log ("Finished ManufacturingOrderRequest: " + finishedOrder);
-					
-					Receipt receipt = new Receipt(getName(), "store", finishedOrder.getShoeType(),
-							false, getCurrentTick(), finishedOrder.getTick(), finishedOrder.getAmount());
-					
-					complete(finishedOrder, receipt);
-					
-					moveToNextOrder();
-				}
-				ticksLeftForCurrentOrder--;
+		// Work on the ticks that were skipped as well
+		for (int tick = getPreviousTick() + 1; tick <= b.getTick(); tick++) {
+			manufacture(tick);
+		}
+	}
+	
+	/** Works on the current order for the given tick */
+	private void manufacture(int tick) {
+		if (!awaitingOrders.isEmpty()) {
+			if (ticksLeftForCurrentOrder == 0) {
+				ManufacturingOrderRequest finishedOrder = awaitingOrders.poll();
+				log(() -> "Finished ManufacturingOrderRequest: " + finishedOrder);
+				
+				Receipt receipt = new Receipt(getName(), "store", finishedOrder.getShoeTypeId(),
+						false, tick, finishedOrder.getTick(), finishedOrder.getAmount());
+				
+				complete(finishedOrder, receipt);
+				
+				moveToNextOrder();
 			}
+			ticksLeftForCurrentOrder--;
 		}
 	}
 	
 	private void handleManufacturingOrderRequest(ManufacturingOrderRequest req) {
 		updateCurrentTick(req.getTick());
-		log("Added ManufacturingOrdeRequest to list: " + req);
-		synchronized (awaitingOrders) {
-			awaitingOrders.add(req);
-			
-			if (awaitingOrders.size() == 1) {
-				moveToNextOrder();
-			}
+		log(() -> "Added ManufacturingOrdeRequest to list: " + req);
+		awaitingOrders.add(req);
+		
+		if (awaitingOrders.size() == 1) {
+			moveToNextOrder();
 		}
 	}
 	
@@ -71,7 +79,7 @@ public class ShoeFactoryService extends TickListenerService {
 			ticksLeftForCurrentOrder = 0;
 		} else {
 			ManufacturingOrderRequest req = awaitingOrders.peek();
-			log("Starting to work on: " + req);
+			log(() -> "Starting to work on: " + req);
 			ticksLeftForCurrentOrder = req.getAmount();
 		}
 	}
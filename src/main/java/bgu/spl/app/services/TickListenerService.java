@@ -1,5 +1,7 @@
 package bgu.spl.app.services;
 
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -15,16 +17,44 @@ public abstract class TickListenerService extends MicroService {
 	
 	protected AtomicInteger currentTickCount;
 	
+	/** The tick of the TickBroadcast handled before the current one, or 0 if there was none */
+	private int previousTick;
+	
+	/** The tick of the last TickBroadcast handled, or 0 if there was none */
+	private int lastTick;
+	
+	/** The ticks asked for with wakeAt() that haven't passed yet */
+	private SortedSet<Integer> wakeUpTicks;
+	
 	/** 
 	 * This phaser is given by our caller and is meant for it to know when we have finished
 	 * registering for the timer's messages.
 	 */
 	protected Phaser initializedPhaser;
+	
+	/** 
+	 * False if the service gets only the ticks it asked for with wakeAt(), instead of 
+	 * every tick
+	 */
+	private final boolean needsEveryTick;
 
 	public TickListenerService(String name, Phaser initializedPhaser) {
+		this(name, initializedPhaser, true);
+	}
+
+	/** 
+	 * @param needsEveryTick If false, the service gets only the TickBroadcasts of the ticks it 
+	 *                       asks for with wakeAt(). With many services, this makes every tick 
+	 *                       cost only as much as the services that are due on it. 
+	 */
+	public TickListenerService(String name, Phaser initializedPhaser, boolean needsEveryTick) {
 		super(name);
 		currentTickCount = new AtomicInteger(1);
 		this.initializedPhaser = initializedPhaser;
+		this.needsEveryTick = needsEveryTick;
+		this.previousTick = 0;
+		this.lastTick = 0;
+		this.wakeUpTicks = new TreeSet<>();
 		initializedPhaser.register();
 	}
 
@@ -34,7 +64,9 @@ public abstract class TickListenerService extends MicroService {
 	 */
 	@Override
 	protected void initialize() {
-		subscribeBroadcast(TickBroadcast.class, (b) -> handleTickBroadcast(b));
+		if (needsEveryTick) {
+			subscribeBroadcast(TickBroadcast.class, (b) -> handleTickBroadcast(b));
+		}
 		subscribeBroadcast(TerminateBroadcast.class, (b) -> terminate());
 		initializedPhaser.arriveAndDeregister();
 	}
@@ -43,9 +75,40 @@ public abstract class TickListenerService extends MicroService {
 	 * The handler for TickBroadcasts. If you wish for more logic on your inherited class,
 	 * you can override this (and subscribe your callback in your initialize()). But
 	 * be sure to call this handler from your handler with "super.handleTickBroadcast".
+	 * <p>
+	 * TickBroadcasts are coalescible, so ticks may be skipped - your handler should act on all
+	 * of the ticks after getPreviousTick(), up to and including b.getTick().
 	 */
 	protected void handleTickBroadcast(TickBroadcast b) {
 		currentTickCount.set(b.getTick());
+		previousTick = lastTick;
+		lastTick = b.getTick();
+		
+		// Every wake-up is needed only once, including the ones that were skipped
+		SortedSet<Integer> passedTicks = wakeUpTicks.headSet(b.getTick() + 1);
+		for (int tick : passedTicks) {
+			unsubscribeBroadcast(TickBroadcast.class, tick);
+		}
+		passedTicks.clear();
+	}
+	
+	/** 
+	 * @return The tick of the TickBroadcast handled before the current one, or 0 if there 
+	 *         was none
+	 */
+	protected int getPreviousTick() {
+		return previousTick;
+	}
+	
+	/** 
+	 * Asks to get the TickBroadcast of the given tick, which will be handled by 
+	 * handleTickBroadcast. Only needed by services that don't get every tick. 
+	 * Wake-ups for the first ticks should be set before calling super.initialize(), since 
+	 * the ticks may start right after it.
+	 */
+	protected void wakeAt(int tick) {
+		wakeUpTicks.add(tick);
+		subscribeBroadcast(TickBroadcast.class, tick, (b) -> handleTickBroadcast(b));
 	}
 	
 	/**
@@ -60,8 +123,6 @@ public abstract class TickListenerService extends MicroService {
 	 * to make sure our current tick is as updated as possible
 	 */
 	protected void updateCurrentTick(int newTick) {
-		synchronized (currentTickCount) {
-			currentTickCount.set(Math.max(newTick, getCurrentTick()));
-		}
+		currentTickCount.accumulateAndGet(newTick, Math::max);
 	}
 }
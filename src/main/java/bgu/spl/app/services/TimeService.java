@@ -1,59 +1,219 @@
 package bgu.spl.app.services;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import bgu.spl.app.LatencyHistogram;
 import bgu.spl.app.messages.TerminateBroadcast;
 import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.mics.MicroService;
 
+/**
+ * Sends a TickBroadcast every "speed" milliseconds, and a TerminateBroadcast after "duration"
+ * ticks. The ticks are sent by a dedicated scheduler thread. Tick n is due exactly
+ * (n - 1) * speed milliseconds after the first one, so the delays don't accumulate into drift.
+ * <p>
+ * When sending a tick takes longer than "speed", the following ticks are late. What happens
+ * then is decided by the OverrunPolicy. The time it takes to send every tick and how late
+ * it was are recorded in histograms, which are logged on termination.
+ * <p>
+ * In virtual time, "speed" is ignored. Every tick is sent as soon as all of the services have
+ * handled all of their messages, so the run takes as long as the work it does. This requires
+ * the MessageBus quiescence tracking to be enabled before the services start.
+ */
 public class TimeService extends MicroService {
-	
+
+	/** What to do with the ticks that were due while the previous tick was being sent */
+	public enum OverrunPolicy {
+		/** Send all of the late ticks at once, until the clock has caught up. This is the default. */
+		CATCH_UP,
+
+		/**
+		 * Don't send the late ticks, and send the next tick on time. The tick numbers stay
+		 * consecutive, so the run just takes longer.
+		 */
+		SKIP,
+
+		/**
+		 * Send a single tick, numbered as the latest late tick. The clock stays on time, and
+		 * the listeners act on the tick numbers in between when they get it. The services 
+		 * that asked for one of the skipped ticks alone get the single tick too.
+		 */
+		COALESCE
+	}
+
 	private static final String SERVICE_NAME = "timer";
-	
+
 	/** Contains the number of milliseconds between each tick */
 	private int speed;
-	
+
 	/** The number of ticks until the service stops */
 	private int duration;
+
+	/** Optional in the json input file */
+	private OverrunPolicy overrunPolicy;
 	
-	/** Contains the number of clock ticks that have passed */  
+	/** Optional in the json input file. If true, the ticks advance in virtual time */
+	private boolean virtualTime;
+
+	/** Contains the number of clock ticks that have passed */
 	private int tickCount;
-	 
-	/** The timer used for broadcasting */ 
-	private transient Timer executionTimer;
-	
+
+	/** The scheduler that sends the ticks */
+	private transient ScheduledExecutorService scheduler;
+
+	/** The time the first tick was sent, in nanoseconds */
+	private transient long startTime;
+
+	/**
+	 * The number of tick periods since startTime at which the next tick is due. Differs from
+	 * tickCount once ticks were skipped.
+	 */
+	private transient long nextTickPeriod;
+
+	/** The number of times a tick was sent after the next one was already due */
+	private transient volatile int overruns;
+
+	/** How long it took to send each tick to all of its listeners */
+	private transient LatencyHistogram tickFanOutTimes;
+
+	/** How late each tick was sent */
+	private transient LatencyHistogram tickLags;
+
 	public TimeService() {
 		this(0, 0);
 	}
 
 	public TimeService(int speed, int duration) {
+		this(speed, duration, OverrunPolicy.CATCH_UP);
+	}
+
+	public TimeService(int speed, int duration, OverrunPolicy overrunPolicy) {
 		super(SERVICE_NAME);
 		this.speed = speed;
 		this.duration = duration;
+		this.overrunPolicy = overrunPolicy;
+		this.virtualTime = false;
 		this.tickCount = 1;
-		this.executionTimer = new Timer();
+		this.overruns = 0;
+		this.tickFanOutTimes = new LatencyHistogram();
+		this.tickLags = new LatencyHistogram();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, SERVICE_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 	@Override
 	protected void initialize() {
-		subscribeBroadcast(TerminateBroadcast.class, (b) -> terminate());
-		
-		TimerTask task = new TimerTask() {
-			@Override
-			public void run() {
-				if (tickCount > duration) {
-					executionTimer.cancel();
-					sendBroadcast(new TerminateBroadcast());
-				} else {
-					log("tick " + tickCount);
-					sendBroadcast(new TickBroadcast(tickCount));
-				}
-				
-				tickCount++;
+		subscribeBroadcast(TerminateBroadcast.class, (b) -> handleTerminateBroadcast());
+		if (overrunPolicy == null) {
+			// Not given in the json input file
+			overrunPolicy = OverrunPolicy.CATCH_UP;
+		}
+
+		startTime = System.nanoTime();
+		nextTickPeriod = 0;
+		scheduler.execute(virtualTime ? this::runVirtualTime : this::sendTick);
+	}
+	
+	/** @return true if the ticks advance in virtual time */
+	public boolean isVirtualTime() {
+		return virtualTime;
+	}
+	
+	public void setVirtualTime(boolean virtualTime) {
+		this.virtualTime = virtualTime;
+	}
+
+	/** @return How long it took to send each tick to all of its listeners */
+	public LatencyHistogram getTickFanOutTimes() {
+		return tickFanOutTimes;
+	}
+
+	/** @return How late each tick was sent */
+	public LatencyHistogram getTickLags() {
+		return tickLags;
+	}
+
+	/** Runs on the scheduler. Sends the current tick and schedules the next one */
+	private void sendTick() {
+		long periodNanos = TimeUnit.MILLISECONDS.toNanos(speed);
+		long lag = System.nanoTime() - (startTime + nextTickPeriod * periodNanos);
+		tickLags.record(lag);
+
+		long latePeriods = periodNanos == 0 ? 0 : lag / periodNanos;
+		int firstSkippedTick = tickCount;
+		if (latePeriods > 0) {
+			overruns++;
+			switch (overrunPolicy) {
+			case SKIP:
+				nextTickPeriod += latePeriods;
+				break;
+			case COALESCE:
+				nextTickPeriod += latePeriods;
+				tickCount += latePeriods;
+				break;
+			case CATCH_UP:
+			default:
+				// The late ticks are already due, so they are sent right after this one
+				break;
+			}
+		}
+
+		if (tickCount > duration) {
+			sendBroadcast(new TerminateBroadcast());
+			return;
+		}
+
+		log(() -> "tick " + tickCount);
+		long sendStart = System.nanoTime();
+		TickBroadcast tick = new TickBroadcast(tickCount);
+		sendBroadcast(tick);
+		for (int skipped = firstSkippedTick; skipped < tickCount; skipped++) {
+			// Or else the services waiting for a skipped tick would never wake up
+			sendBroadcast(tick, skipped);
+		}
+		tickFanOutTimes.record(System.nanoTime() - sendStart);
+
+		tickCount++;
+		nextTickPeriod++;
+		long delay = startTime + nextTickPeriod * periodNanos - System.nanoTime();
+		scheduler.schedule(this::sendTick, Math.max(0, delay), TimeUnit.NANOSECONDS);
+	}
+
+	/** 
+	 * Runs on the scheduler. Sends every tick once the services have handled everything the 
+	 * previous tick caused.
+	 */
+	private void runVirtualTime() {
+		try {
+			for (; tickCount <= duration; tickCount++) {
+				log(() -> "tick " + tickCount);
+				long sendStart = System.nanoTime();
+				sendBroadcast(new TickBroadcast(tickCount));
+				tickFanOutTimes.record(System.nanoTime() - sendStart);
+				awaitQuiescence();
 			}
-		};
-		
-		executionTimer.scheduleAtFixedRate(task, 0, speed);
+		} catch (InterruptedException e) {
+			// Terminated by someone else
+			return;
+		}
+		sendBroadcast(new TerminateBroadcast());
+	}
+
+	private void handleTerminateBroadcast() {
+		scheduler.shutdownNow();
+		log(() -> "tick fan-out times: " + tickFanOutTimes);
+		if (virtualTime) {
+			log(() -> "ran " + (tickCount - 1) + " ticks in virtual time, in " 
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+		} else {
+			log(() -> "tick lags: " + tickLags);
+			log(() -> "overruns: " + overruns + " (" + overrunPolicy + ")");
+		}
+		terminate();
 	}
 }
@@ -15,6 +15,7 @@ import com.google.gson.reflect.TypeToken;
 
 import bgu.spl.app.PurchaseSchedule;
 import bgu.spl.app.ScheduleList;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.app.messages.NewDiscountBroadcast;
 import bgu.spl.app.messages.PurchaseOrderRequest;
 import bgu.spl.app.messages.TickBroadcast;
@@ -29,7 +30,8 @@ public class WebsiteClientService extends TickListenerService {
 
 	public WebsiteClientService(String name, Phaser initializedPhaser, 
 			List<PurchaseSchedule> purchaseSchedules, Set<String> wishList) {
-		super(name, initializedPhaser);
+		// We only act on the ticks of our purchase schedules
+		super(name, initializedPhaser, false);
 		
 		this.purchaseSchedules = new ScheduleList<>(purchaseSchedules);
 		this.wishList = wishList;
@@ -37,43 +39,53 @@ public class WebsiteClientService extends TickListenerService {
 
 	@Override
 	protected void initialize() {
+		// Subscribe before super.initialize(), since the ticks may start right after it
+		for (int tick : purchaseSchedules.getTicks()) {
+			wakeAt(tick);
+		}
+		for (String shoeType : wishList) {
+			// The discounts are keyed by the id of the shoe type
+			subscribeBroadcast(NewDiscountBroadcast.class, ShoeTypeDictionary.getInstance().idOf(shoeType), 
+					(b) -> handleNewDiscountBroadcast(b));
+		}
 		super.initialize();
-		subscribeBroadcast(TickBroadcast.class, (b) -> handleTickBroadcast(b));
-		subscribeBroadcast(NewDiscountBroadcast.class, (b) -> handleNewDiscountBroadcast(b));
 	}
 	
 	@Override
 	protected void handleTickBroadcast(TickBroadcast b) {
 		super.handleTickBroadcast(b);
-		Set<PurchaseSchedule> schedules = purchaseSchedules.getSchedulesForTick(b.getTick());
-		for (PurchaseSchedule sched : schedules) {
-			log("PurchaseSchedule occurred: " + sched);
-			PurchaseOrderRequest order = new PurchaseOrderRequest(
-					sched.getShoeType(), getName(), false, b.getTick());
-			purchase(order);
+		for (int tick = getPreviousTick() + 1; tick <= b.getTick(); tick++) {
+			Set<PurchaseSchedule> schedules = purchaseSchedules.getSchedulesForTick(tick);
+			for (PurchaseSchedule sched : schedules) {
+				log(() -> "PurchaseSchedule occurred: " + sched);
+				PurchaseOrderRequest order = new PurchaseOrderRequest(
+						sched.getShoeType(), getName(), false, tick);
+				purchase(order);
+			}
 		}
 	}
 	
 	private void handleNewDiscountBroadcast(NewDiscountBroadcast b) {
 		updateCurrentTick(b.getTick());
+		// We may have bought the shoe after the discount was sent, but before we've unsubscribed
 		if (wishList.contains(b.getShoeType())) {
-			log("Wishlisted shoe got discount: " + b);
+			log(() -> "Wishlisted shoe got discount: " + b);
 			PurchaseOrderRequest order = new PurchaseOrderRequest(
-					b.getShoeType(), getName(), true, getCurrentTick());
+					b.getShoeTypeId(), getName(), true, getCurrentTick());
 			purchase(order);
 		}
 	}
 	
 	private void purchase(PurchaseOrderRequest order) {
-		log("Sending purchase request: " + order);
+		log(() -> "Sending purchase request: " + order);
 		boolean isReqHandled = sendRequest(order, (receipt) -> {
-			log("Purchase finished: " + receipt);
-			if (receipt != null) {
-				wishList.remove(order.getShoeType());
+			log(() -> "Purchase finished: " + receipt);
+			if (receipt != null && wishList.remove(order.getShoeType())) {
+				unsubscribeBroadcast(NewDiscountBroadcast.class, order.getShoeTypeId());
 			}
 		});
 		if (!isReqHandled) {
-			log("No handler found for PurchaseOrderRequest: " + order);
+			log(() -> "No handler found for PurchaseOrderRequest: " + order);
 		}
 	}
 	
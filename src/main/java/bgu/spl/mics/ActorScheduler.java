@@ -0,0 +1,218 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * Runs micro-services without a thread of their own, as tasks on a shared
+ * {@link ForkJoinPool}. A micro-service is scheduled when messages arrive to
+ * its queue. It then handles up to {@code throughput} messages and yields the
+ * worker to the other micro-services, rescheduling itself if it still has
+ * messages.
+ * <p>
+ * A micro-service is never scheduled twice at the same time, so it handles
+ * its messages in order, and its callbacks never run concurrently - exactly
+ * like on a thread of its own. Its callbacks must never block though, since
+ * that would hold a worker of the pool.
+ */
+public class ActorScheduler {
+
+    /** The default for the amount of messages a micro-service handles before it yields */
+    public static final int DEFAULT_THROUGHPUT = 64;
+
+    private final ForkJoinPool pool;
+    private final int throughput;
+
+    /** The amount of started micro-services that haven't terminated yet. Guarded by terminationLock */
+    private int running;
+    private final Lock terminationLock;
+    private final Condition allTerminated;
+
+    /**
+     * Creates a scheduler with a worker per available processor, and the
+     * default throughput.
+     */
+    public ActorScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param parallelism the amount of worker threads
+     * @param throughput  the maximal amount of messages a micro-service handles
+     *                    before it yields its worker. Must be positive.
+     */
+    public ActorScheduler(int parallelism, int throughput) {
+        if (throughput < 1) {
+            throw new IllegalArgumentException("Throughput must be positive: " + throughput);
+        }
+        // Async mode keeps the scheduled micro-services in FIFO order, so none of them starves
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        this.throughput = throughput;
+        this.running = 0;
+        this.terminationLock = new ReentrantLock();
+        this.allTerminated = terminationLock.newCondition();
+    }
+
+    /**
+     * starts running {@code m} on the pool. Its {@link MicroService#initialize()}
+     * is called on one of the workers, like the rest of its callbacks.
+     * <p>
+     * @param m the micro-service to start. Must not be started already.
+     */
+    public void start(MicroService m) {
+        terminationLock.lock();
+        try {
+            running++;
+        } finally {
+            terminationLock.unlock();
+        }
+        pool.execute(new Actor(m));
+    }
+
+    /**
+     * waits until all of the started micro-services have terminated.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        terminationLock.lock();
+        try {
+            while (running > 0) {
+                allTerminated.await();
+            }
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    /**
+     * stops the worker threads. Micro-services that haven't terminated yet
+     * won't handle any more messages.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void onTerminated() {
+        terminationLock.lock();
+        try {
+            if (--running == 0) {
+                allTerminated.signalAll();
+            }
+        } finally {
+            terminationLock.unlock();
+        }
+    }
+
+    /** Schedules a single micro-service on the pool */
+    private class Actor implements Runnable {
+        private final MicroService service;
+        private final List<Message> batch;
+
+        /**
+         * Counts the messages that arrived since the actor last found its queue
+         * empty. The actor is scheduled whenever this goes up from 0, and
+         * stays scheduled until it finds its queue empty with no new arrivals.
+         */
+        private final AtomicLong arrivals;
+
+        private boolean isStarted;
+        private volatile boolean isStopped;
+
+        Actor(MicroService service) {
+            this.service = service;
+            this.batch = new ArrayList<>(service.getMessageBatchSize());
+            // The first run, which starts the service, is already scheduled
+            this.arrivals = new AtomicLong(1);
+            this.isStarted = false;
+            this.isStopped = false;
+        }
+
+        /** The message listener of the service's queue */
+        private void onMessage() {
+            if (arrivals.getAndIncrement() == 0 && !isStopped) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (isStopped) {
+                return;
+            }
+
+            try {
+                if (!isStarted) {
+                    isStarted = true;
+                    service.start();
+                    MessageBusImpl.getInstance().setMessageListener(service, this::onMessage);
+                }
+                if (!service.isTerminated() && handleMessages()) {
+                    // Out of budget - yield to the other actors and continue later
+                    pool.execute(this);
+                }
+            } catch (RuntimeException e) {
+                // Like an uncaught exception on a thread of its own, this ends the service
+                service.terminate();
+                throw e;
+            } finally {
+                if (service.isTerminated()) {
+                    isStopped = true;
+                    service.stop();
+                    onTerminated();
+                }
+            }
+        }
+
+        /**
+         * Handles messages until the queue is empty, the service terminates or
+         * the throughput budget runs out.
+         * @return true if the actor should be scheduled again
+         */
+        private boolean handleMessages() {
+            MessageBus messageBus = MessageBusImpl.getInstance();
+            int maxBatch = service.getMessageBatchSize();
+            int handled = 0;
+            while (handled < throughput) {
+                // Read before polling: a message that arrives after the poll
+                // found the queue empty must have changed it
+                long seenArrivals = arrivals.get();
+                int count = messageBus.pollMessages(service, batch,
+                        Math.min(maxBatch, throughput - handled));
+                if (count == 0) {
+                    if (arrivals.compareAndSet(seenArrivals, 0)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                try {
+                    for (int i = 0; i < count && !service.isTerminated(); i++) {
+                        service.dispatch(batch.get(i));
+                    }
+                } finally {
+                    batch.clear();
+                }
+                if (service.isTerminated()) {
+                    return false;
+                }
+                handled += count;
+            }
+            return true;
+        }
+    }
+}
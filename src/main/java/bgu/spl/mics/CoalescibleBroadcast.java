@@ -0,0 +1,16 @@
+package bgu.spl.mics;
+
+/**
+ * A "Marker" interface extending {@link Broadcast}, for broadcasts whose
+ * subscribers only care about the latest one - e.g. a broadcast of the current
+ * state. If an older broadcast of the same type is still waiting in a
+ * subscriber's queue, a new one replaces it instead of being queued after it.
+ * So a lagging subscriber skips the stale broadcasts, and every type adds at
+ * most one message to a queue.
+ * <p>
+ * The new broadcast takes the place of the older one in the queue, so it may
+ * be received before messages that were sent between the two.
+ */
+public interface CoalescibleBroadcast extends Broadcast {
+
+}
@@ -0,0 +1,15 @@
+package bgu.spl.mics;
+
+/**
+ * A "Marker" interface for messages that control the receiving micro-service,
+ * like termination or the completion of a request it sent. Every queue has a
+ * separate lane for them, which is taken before the ordinary messages - so
+ * they don't wait behind a backlog of ordinary work.
+ * <p>
+ * Messages in the same lane are received in the order they were sent. The
+ * control lane is never full, so control messages are never rejected or
+ * dropped.
+ */
+public interface ControlMessage extends Message {
+
+}
@@ -0,0 +1,16 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link Broadcast} that has a key. Besides the subscribers of its type, it is
+ * received only by the micro-services that subscribed to its type for its key
+ * (see {@link MessageBus#subscribeBroadcast(Class, Object, MicroService)}), so
+ * it isn't sent to the services that would ignore it anyway.
+ */
+public interface KeyedBroadcast extends Broadcast {
+
+    /**
+     * @return the key of the broadcast. Compared to the subscribed keys with
+     *         {@link Object#equals(Object)}.
+     */
+    Object getKey();
+}
@@ -0,0 +1,91 @@
+package bgu.spl.mics;
+
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+import bgu.spl.mics.impl.AsyncLogWriter;
+
+/**
+ * The logging facade of the micro-services framework. A logged message is
+ * formatted as {@code "<source>: <message>"} by the thread that logs it, and
+ * is written to the output later by a background thread - so logging never waits
+ * for the output, and the threads that log don't contend on it.
+ * <p>
+ * Messages below the current level are suppressed. Pass a {@link Supplier} in
+ * order to build a message only if its level is enabled - a suppressed
+ * message then costs a single volatile read.
+ * <p>
+ * The output is {@link System#out} by default. Call {@link #flush()} before
+ * writing to it directly, so the output doesn't interleave with log lines that
+ * haven't been written yet.
+ */
+public final class Log {
+
+    /** The levels of the log messages, from the most to the least verbose */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        /** Only used for {@link #setLevel(Level)}, suppresses all of the messages */
+        OFF
+    }
+
+    /** The amount of lines that may wait for the writer before the logging threads have to wait */
+    private static final int CAPACITY = 1 << 16;
+
+    private static final AsyncLogWriter WRITER = new AsyncLogWriter(CAPACITY, System.out);
+
+    private static volatile Level level = Level.INFO;
+
+    private Log() {
+    }
+
+    /** @return true if messages of the given level are logged */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+
+    /** Sets the least level that is logged. The default is {@link Level#INFO}. */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Writes the following messages to the given stream instead. The messages
+     * logged so far are written to the previous output first.
+     */
+    public static void setOutput(OutputStream out) {
+        WRITER.setOutput(out);
+    }
+
+    /**
+     * logs {@code msg} if {@code messageLevel} is enabled.
+     * <p>
+     * @param source the name of whoever logs the message, e.g. the name of a
+     *               micro-service
+     */
+    public static void log(Level messageLevel, String source, String msg) {
+        if (isEnabled(messageLevel)) {
+            WRITER.write(source + ": " + msg);
+        }
+    }
+
+    /**
+     * logs the message built by {@code msg} if {@code messageLevel} is
+     * enabled. Otherwise {@code msg} isn't called at all.
+     * <p>
+     * @param source the name of whoever logs the message, e.g. the name of a
+     *               micro-service
+     */
+    public static void log(Level messageLevel, String source, Supplier<String> msg) {
+        if (isEnabled(messageLevel)) {
+            WRITER.write(source + ": " + msg.get());
+        }
+    }
+
+    /** waits until everything logged so far was written to the output */
+    public static void flush() {
+        WRITER.flush();
+    }
+}
@@ -0,0 +1,71 @@
+package bgu.spl.mics;
+
+/**
+ * Describes the message queue the {@link MessageBus} should allocate for a 
+ * {@link MicroService} when it registers. Immutable.
+ */
+public final class MailboxConfig {
+    /** The capacity of a queue that is not bounded */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+    
+    /** The capacity of a ring buffer when none is given */
+    public static final int DEFAULT_RING_BUFFER_CAPACITY = 1024;
+    
+    /** An unbounded linked queue - what a service gets unless it asks otherwise */
+    public static final MailboxConfig DEFAULT = new MailboxConfig(MailboxType.LINKED, UNBOUNDED);
+    
+    private final MailboxType type;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    
+    /**
+     * @param type           the kind of queue to allocate
+     * @param capacity       the maximal amount of messages in the queue. A ring buffer can't be 
+     *                       unbounded, so {@link #UNBOUNDED} means the default ring buffer 
+     *                       capacity.
+     * @param overflowPolicy what to do with messages sent while the queue is full
+     * @throws IllegalArgumentException if the capacity isn't positive, or the queue type
+     *                                  doesn't support the overflow policy
+     */
+    public MailboxConfig(MailboxType type, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+        }
+        if (type == MailboxType.RING_BUFFER && overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            // Only the receiver may remove messages from a ring buffer
+            throw new IllegalArgumentException("A ring buffer mailbox can't drop its oldest messages");
+        }
+        this.type = type;
+        this.capacity = (type == MailboxType.RING_BUFFER && capacity == UNBOUNDED) ?
+                DEFAULT_RING_BUFFER_CAPACITY : capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * @param type     the kind of queue to allocate
+     * @param capacity the maximal amount of messages in the queue. Senders to a full queue
+     *                 wait for room.
+     */
+    public MailboxConfig(MailboxType type, int capacity) {
+        this(type, capacity, OverflowPolicy.BLOCK);
+    }
+    
+    /**
+     * @param type the kind of queue to allocate, with its default capacity
+     */
+    public MailboxConfig(MailboxType type) {
+        this(type, UNBOUNDED);
+    }
+    
+    public MailboxType getType() {
+        return type;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+}
@@ -0,0 +1,16 @@
+package bgu.spl.mics;
+
+/**
+ * The kinds of message queues the {@link MessageBus} can allocate for a {@link MicroService}.
+ */
+public enum MailboxType {
+    /** A linked queue guarded by locks. Allocates a node for every message. This is the default. */
+    LINKED,
+    
+    /** 
+     * A lock-free array ring buffer for many senders and a single receiver. Doesn't allocate 
+     * per message, and the receiving service spins for a short while before it parks, so 
+     * messages sent in bursts are taken without a context switch. Always bounded.
+     */
+    RING_BUFFER
+}
@@ -1,5 +1,8 @@
 package bgu.spl.mics;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The message-bus is a shared object used for communication between
  * micro-services.
@@ -18,6 +21,19 @@ public interface MessageBus {
      */
     void subscribeRequest(Class<? extends Request> type, MicroService m);
 
+    /**
+     * subscribes {@code m} to receive {@link Request}s of type {@code type},
+     * choosing between the subscribers with {@code policy}.
+     * The routing policy of a request type is set by its first subscriber -
+     * later subscribers join the policy already in use.
+     * <p>
+     * @param type   the type to subscribe to
+     * @param m      the subscribing micro-service
+     * @param policy the policy used to choose which subscriber receives each
+     *               request of type {@code type}
+     */
+    void subscribeRequest(Class<? extends Request> type, MicroService m, RoutingPolicy policy);
+
     /**
      * subscribes {@code m} to receive {@link Broadcast}s of type {@code type}.
      * <p>
@@ -26,6 +42,32 @@ public interface MessageBus {
      */
     void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m);
 
+    /**
+     * subscribes {@code m} to receive the {@link KeyedBroadcast}s of type
+     * {@code type} whose key equals {@code key}. A micro-service may subscribe
+     * to several keys of the same type.
+     * A micro-service subscribed to {@code type} with
+     * {@link #subscribeBroadcast(Class, MicroService)} receives all of its
+     * broadcasts, once, regardless of the keys.
+     * <p>
+     * @param type the type to subscribe to
+     * @param key  the key of the broadcasts to receive
+     * @param m    the subscribing micro-service
+     */
+    void subscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m);
+
+    /**
+     * cancels the subscription of {@code m} to the {@link KeyedBroadcast}s of
+     * type {@code type} with the key {@code key}. Broadcasts that are already in
+     * {@code m}'s queue are still received. If {@code m} isn't subscribed to
+     * {@code key}, nothing should happen.
+     * <p>
+     * @param type the type subscribed to
+     * @param key  the key to stop receiving
+     * @param m    the subscribed micro-service
+     */
+    void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m);
+
     /**
      * Notifying the MessageBus that the request {@code r} is completed and its
      * result was {@code result}.
@@ -48,10 +90,24 @@ public interface MessageBus {
      */
     void sendBroadcast(Broadcast b);
 
+    /**
+     * add the {@link KeyedBroadcast} {@code b} to the message queues of the
+     * micro-services subscribed to the key {@code key} of {@code b.getClass()}
+     * only - not of the ones subscribed to all of its keys, which should get
+     * {@code b} from {@link #sendBroadcast(Broadcast)}. Lets a sender that
+     * folded several keys into a single broadcast still reach the subscribers
+     * of the keys it folded.
+     * <p>
+     * @param b   the message to add to the queues.
+     * @param key the key whose subscribers should get {@code b}, which may
+     *            differ from {@code b.getKey()}
+     */
+    void sendBroadcast(KeyedBroadcast b, Object key);
+
     /**
      * add the {@link Request} {@code r} to the message queue of one of the
-     * micro-services subscribed to {@code r.getClass()} in a round-robin
-     * fashion.
+     * micro-services subscribed to {@code r.getClass()}, chosen by the
+     * {@link RoutingPolicy} of that type (round-robin by default).
      * <p>
      * @param r         the request to add to the queue.
      * @param requester the {@link MicroService} sending {@code r}.
@@ -60,6 +116,39 @@ public interface MessageBus {
      */
     boolean sendRequest(Request<?> r, MicroService requester);
 
+    /**
+     * like {@link #sendRequest(bgu.spl.mics.Request, bgu.spl.mics.MicroService)},
+     * but tags the request with {@code correlationId}. The {@link RequestCompleted}
+     * message of {@code r} will carry the same id, so the requester can find
+     * the callback of {@code r} without looking the request up.
+     * <p>
+     * @param r             the request to add to the queue.
+     * @param requester     the {@link MicroService} sending {@code r}.
+     * @param correlationId the id to return in the {@link RequestCompleted}
+     *                      message of {@code r}.
+     * @return true if there was at least one micro-service subscribed to
+     *         {@code r.getClass()} and false otherwise.
+     */
+    boolean sendRequest(Request<?> r, MicroService requester, long correlationId);
+
+    /**
+     * like {@link #sendRequest(bgu.spl.mics.Request, bgu.spl.mics.MicroService, long)},
+     * but with a deadline. If {@code r} isn't completed within {@code timeout},
+     * the message-bus stops waiting for it: it adds to the requester's queue a
+     * {@link RequestCompleted} message whose result is null and which is marked
+     * as timed out, and ignores a later completion of {@code r}.
+     * <p>
+     * @param r             the request to add to the queue.
+     * @param requester     the {@link MicroService} sending {@code r}.
+     * @param correlationId the id to return in the {@link RequestCompleted}
+     *                      message of {@code r}.
+     * @param timeout       the time to wait for {@code r} to complete.
+     * @param unit          the unit of {@code timeout}.
+     * @return true if there was at least one micro-service subscribed to
+     *         {@code r.getClass()} and false otherwise.
+     */
+    boolean sendRequest(Request<?> r, MicroService requester, long correlationId, long timeout, TimeUnit unit);
+
     /**
      * allocates a message-queue for the {@link MicroService} {@code m}.
      * <p>
@@ -67,6 +156,15 @@ public interface MessageBus {
      */
     void register(MicroService m);
 
+    /**
+     * allocates a message-queue described by {@code config} for the
+     * {@link MicroService} {@code m}.
+     * <p>
+     * @param m      the micro-service to create a queue for.
+     * @param config the kind and capacity of the queue to allocate.
+     */
+    void register(MicroService m, MailboxConfig config);
+
     /**
      * remove the message queue allocated to {@code m} via the call to
      * {@link #register(bgu.spl.mics.MicroService)} and clean all references
@@ -94,4 +192,56 @@ public interface MessageBus {
      */
     Message awaitMessage(MicroService m) throws InterruptedException;
 
+    /**
+     * like {@link #awaitMessage(bgu.spl.mics.MicroService)}, but takes up to
+     * {@code maxMessages} messages at once. This method blocks only until the
+     * first message is available - then it adds to {@code batch} the messages
+     * that are already waiting in {@code m}'s queue, up to {@code maxMessages}
+     * messages in total.
+     * The method should throw the {@link IllegalStateException} in the case
+     * where {@code m} was never registered.
+     * <p>
+     * @param m           the micro-service requesting to take messages from its
+     *                    message queue
+     * @param batch       the collection the taken messages are added to, in
+     *                    their order in the queue
+     * @param maxMessages the maximal amount of messages to take. Must be
+     *                    positive.
+     * @return the amount of messages added to {@code batch} (at least 1)
+     * @throws InterruptedException if interrupted while waiting for a message
+     *                              to became available.
+     */
+    int awaitMessages(MicroService m, Collection<? super Message> batch, int maxMessages)
+            throws InterruptedException;
+
+    /**
+     * like {@link #awaitMessages(bgu.spl.mics.MicroService, Collection, int)},
+     * but never blocks - if no messages are available in {@code m}'s queue, it
+     * returns 0 right away.
+     * The method should throw the {@link IllegalStateException} in the case
+     * where {@code m} was never registered.
+     * <p>
+     * @param m           the micro-service requesting to take messages from its
+     *                    message queue
+     * @param batch       the collection the taken messages are added to, in
+     *                    their order in the queue
+     * @param maxMessages the maximal amount of messages to take. Must be
+     *                    positive.
+     * @return the amount of messages added to {@code batch}
+     */
+    int pollMessages(MicroService m, Collection<? super Message> batch, int maxMessages);
+
+    /**
+     * sets a listener that is called, in the sending thread, after each message
+     * that is added to {@code m}'s queue. Lets micro-services without a thread
+     * of their own (see {@link ActorScheduler}) get scheduled when messages
+     * arrive. The listener must be fast and must never block.
+     * The method should throw the {@link IllegalStateException} in the case
+     * where {@code m} was never registered.
+     * <p>
+     * @param m        the micro-service whose queue to listen to
+     * @param listener the listener, or null to remove the current one
+     */
+    void setMessageListener(MicroService m, Runnable listener);
+
 }
@@ -1,7 +1,13 @@
 package bgu.spl.mics;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import bgu.spl.mics.impl.MessageBusImpl;
 
@@ -25,13 +31,28 @@ import bgu.spl.mics.impl.MessageBusImpl;
 @SuppressWarnings({ "rawtypes", "unchecked" })
 public abstract class MicroService implements Runnable {
 
-    private boolean terminated = false;
+    /** The default for {@link #setMessageBatchSize(int)} */
+    public static final int DEFAULT_MESSAGE_BATCH_SIZE = 32;
+
+    private static final long NO_TIMEOUT = -1;
+
+    private volatile boolean terminated = false;
     private final String name;
+    private MailboxConfig mailboxConfig = MailboxConfig.DEFAULT;
+    
+    /** The maximal amount of messages the event loop takes from the queue at once */
+    private int messageBatchSize = DEFAULT_MESSAGE_BATCH_SIZE;
+    
+    /** 
+     * The dispatch table of the event loop - maps between a message class and its handling 
+     * callback. Holds the subscribed broadcast and request types, and {@link RequestCompleted}.
+     * A concurrent map, so callbacks registered from any thread are safely published to the 
+     * event loop.
+     */
+    private Map<Class<? extends Message>, Callback> callbacks;
     
-    /** Contains a map between message type and its handling callback. */
-    private Map<Class<? extends Broadcast>, Callback<? extends Broadcast>> broadcastCallbacks;
-	private Map<Class<? extends Request>, Callback<? extends Request>> requestCallbacks;
-    private Map<Request, Callback> completeCallbacks;
+    /** The onComplete callbacks of the sent requests, indexed by their correlation ids */
+    private PendingRequests completeCallbacks;
     
     /**
      * @param name the micro-service name (used mainly for debugging purposes -
@@ -39,9 +60,9 @@ public abstract class MicroService implements Runnable {
      */
     public MicroService(String name) {
         this.name = name;
-        this.broadcastCallbacks = new HashMap<>();
-        this.requestCallbacks = new HashMap<>();
-        this.completeCallbacks = new HashMap<>();
+        this.callbacks = new ConcurrentHashMap<>();
+        this.completeCallbacks = new PendingRequests();
+        this.callbacks.put(RequestCompleted.class, (Callback<RequestCompleted>) this::handleRequestCompleted);
     }
 
     /**
@@ -65,10 +86,28 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <R extends Request> void subscribeRequest(Class<R> type, Callback<R> callback) {
-        MessageBusImpl.getInstance().subscribeRequest(type, this);
-        synchronized (requestCallbacks) {
-        	requestCallbacks.put(type, callback);
-        }
+        subscribeRequest(type, callback, RoutingPolicy.ROUND_ROBIN);
+    }
+
+    /**
+     * subscribes to requests of type {@code type} with the callback
+     * {@code callback}, like {@link #subscribeRequest(Class, Callback)}, and
+     * asks the message-bus to choose between the subscribers of {@code type}
+     * using {@code policy}.
+     * <p>
+     * @param <R>      the type of request to subscribe to
+     * @param type     the {@link Class} representing the type of request to
+     *                 subscribe to.
+     * @param callback the callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     * @param policy   the routing policy of {@code type}. It is used only if
+     *                 this is the first subscriber of {@code type}.
+     */
+    protected final <R extends Request> void subscribeRequest(Class<R> type, Callback<R> callback, 
+    		RoutingPolicy policy) {
+        MessageBusImpl.getInstance().subscribeRequest(type, this, policy);
+        callbacks.put(type, callback);
     }
 
     /**
@@ -94,15 +133,48 @@ public abstract class MicroService implements Runnable {
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
         MessageBusImpl.getInstance().subscribeBroadcast(type, this);
-        synchronized (broadcastCallbacks) {
-        	broadcastCallbacks.put(type,  callback);
-        }
+        callbacks.put(type, callback);
+    }
+
+    /**
+     * subscribes to the broadcast messages of type {@code type} whose key is
+     * {@code key}, with the callback {@code callback}. Other keys of
+     * {@code type} are never sent to this micro-service, unless it subscribes
+     * to them too. All of the keys of a type share the same callback - the
+     * callback given last replaces the previous ones.
+     * <p>
+     * @param <B>      the type of broadcast message to subscribe to
+     * @param type     the {@link Class} representing the type of broadcast
+     *                 message to subscribe to.
+     * @param key      the key of the broadcast messages to receive
+     * @param callback the callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     */
+    protected final <B extends KeyedBroadcast> void subscribeBroadcast(Class<B> type, Object key, 
+            Callback<B> callback) {
+        MessageBusImpl.getInstance().subscribeBroadcast(type, key, this);
+        callbacks.put(type, callback);
+    }
+
+    /**
+     * stops receiving the broadcast messages of type {@code type} whose key is
+     * {@code key}. Messages already in the queue are still handled.
+     * <p>
+     * @param type the {@link Class} representing the type of broadcast
+     *             message subscribed to.
+     * @param key  the key to stop receiving
+     */
+    protected final void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key) {
+        MessageBusImpl.getInstance().unsubscribeBroadcast(type, key, this);
     }
 
     /**
      * send the request {@code r} using the message-bus and storing the
      * {@code onComplete} callback so that it will be executed <b> in this
      * micro-service event loop </b> once the request is complete.
+     * Should be called only from this micro-service's own thread (i.e., from
+     * {@link #initialize()} or from a callback).
      * <p>
      * @param <T>        the type of the expected result of the request
      *                   {@code r}
@@ -116,14 +188,120 @@ public abstract class MicroService implements Runnable {
      *         {@code r.getClass()} and false otherwise.
      */
     protected final <T> boolean sendRequest(Request<T> r, Callback<T> onComplete) {
-    	if (MessageBusImpl.getInstance().sendRequest(r, this)) {
-    		synchronized (completeCallbacks) {
-    			completeCallbacks.put(r, onComplete);
-    		}
-    		return true;
-    	} else {
-    		return false;
+    	return sendRequest(r, onComplete, NO_TIMEOUT);
+    }
+
+    /**
+     * like {@link #sendRequest(Request, Callback)}, but gives up on {@code r}
+     * if it isn't completed within {@code timeout}. In that case
+     * {@code onComplete} is called with a null result (in this micro-service
+     * event loop, as usual), and a later completion of {@code r} is ignored.
+     * <p>
+     * @param <T>        the type of the expected result of the request
+     *                   {@code r}
+     * @param r          the request to send
+     * @param timeout    the time to wait for {@code r} to complete
+     * @param unit       the unit of {@code timeout}
+     * @param onComplete the callback to call when {@code r} is completed or
+     *                   times out
+     * @return true if there was at least one micro-service subscribed to
+     *         {@code r.getClass()} and false otherwise.
+     */
+    protected final <T> boolean sendRequest(Request<T> r, long timeout, TimeUnit unit, Callback<T> onComplete) {
+    	return sendRequest(r, onComplete, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    private <T> boolean sendRequest(Request<T> r, Callback<T> onComplete, long timeoutNanos) {
+    	// The callback must be stored before sending, since the request may complete
+    	// right away.
+    	long correlationId = completeCallbacks.add(onComplete);
+    	MessageBus messageBus = MessageBusImpl.getInstance();
+    	boolean isSent = timeoutNanos == NO_TIMEOUT ?
+    			messageBus.sendRequest(r, this, correlationId) :
+    			messageBus.sendRequest(r, this, correlationId, timeoutNanos, TimeUnit.NANOSECONDS);
+    	if (!isSent) {
+    		completeCallbacks.remove(correlationId);
     	}
+    	return isSent;
+    }
+
+    /**
+     * send the request {@code r} using the message-bus, like
+     * {@link #sendRequest(Request, Callback)}, and return a future of its
+     * result. The future is completed <b> in this micro-service event loop </b>,
+     * so the stages chained to it (without the "Async" suffix) run in the event
+     * loop too, and may use this micro-service freely - e.g. send another
+     * request and return its future from {@link CompletableFuture#thenCompose}.
+     * Should be called only from this micro-service's own thread.
+     * <p>
+     * @param <T> the type of the expected result of the request {@code r}
+     * @param r   the request to send
+     * @return a future of the result provided when the micro-service receiving
+     *         {@code r} completes it. If no micro-service is subscribed to
+     *         {@code r.getClass()}, the future is already completed
+     *         exceptionally with an {@link IllegalStateException}.
+     */
+    protected final <T> CompletableFuture<T> sendRequestAsync(Request<T> r) {
+        return sendRequestAsync(r, NO_TIMEOUT);
+    }
+
+    /**
+     * like {@link #sendRequestAsync(Request)}, but gives up on {@code r} if it
+     * isn't completed within {@code timeout}. In that case the future is
+     * completed exceptionally with a {@link TimeoutException}.
+     * <p>
+     * @param <T>     the type of the expected result of the request {@code r}
+     * @param r       the request to send
+     * @param timeout the time to wait for {@code r} to complete
+     * @param unit    the unit of {@code timeout}
+     * @return a future of the result of {@code r}
+     */
+    protected final <T> CompletableFuture<T> sendRequestAsync(Request<T> r, long timeout, TimeUnit unit) {
+        return sendRequestAsync(r, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    private <T> CompletableFuture<T> sendRequestAsync(Request<T> r, long timeoutNanos) {
+        FutureCallback<T> future = new FutureCallback<>();
+        if (!sendRequest(r, future, timeoutNanos)) {
+            future.completeExceptionally(new IllegalStateException(
+                    "No micro-service is subscribed to " + r.getClass().getName()));
+        }
+        return future;
+    }
+
+    /** The onComplete callback of a request sent with sendRequestAsync */
+    private static class FutureCallback<T> extends CompletableFuture<T> implements Callback<T> {
+        @Override
+        public void call(T result) {
+            complete(result);
+        }
+    }
+
+    /**
+     * send all of the requests {@code requests} at once using
+     * {@link #sendRequestAsync(Request)}, and return a future of all of their
+     * results. The future is completed in this micro-service event loop once
+     * the last request is completed.
+     * <p>
+     * @param <T>      the type of the expected results of the requests
+     * @param requests the requests to send
+     * @return a future of the results, in the order of {@code requests}. It
+     *         is completed exceptionally if any of the requests couldn't be
+     *         sent.
+     */
+    protected final <T> CompletableFuture<List<T>> sendRequestsAsync(List<? extends Request<T>> requests) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(requests.size());
+        for (Request<T> r : requests) {
+            futures.add(sendRequestAsync(r));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                .thenApply(done -> {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<T> future : futures) {
+                        results.add(future.join());
+                    }
+                    return results;
+                });
     }
 
     /**
@@ -135,6 +313,31 @@ public abstract class MicroService implements Runnable {
         MessageBusImpl.getInstance().sendBroadcast(b);
     }
 
+    /**
+     * send the keyed broadcast message {@code b} only to the micro-services
+     * subscribed to the key {@code key} of its type, using the message-bus.
+     * <p>
+     * @param b   the broadcast message to send
+     * @param key the key whose subscribers should get {@code b}
+     */
+    protected final void sendBroadcast(KeyedBroadcast b, Object key) {
+        MessageBusImpl.getInstance().sendBroadcast(b, key);
+    }
+
+    /**
+     * waits until every sent message has been handled, so all of the
+     * micro-services are idle. Requires quiescence tracking to be enabled
+     * before the micro-services start (see
+     * {@link MessageBusImpl#enableQuiescenceTracking()}).
+     * Must not be called from this micro-service's own thread, since its own
+     * messages would never be handled.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected final void awaitQuiescence() throws InterruptedException {
+        MessageBusImpl.getInstance().awaitQuiescence();
+    }
+
     /**
      * complete the received request {@code r} with the result {@code result}
      * using the message-bus.
@@ -171,47 +374,118 @@ public abstract class MicroService implements Runnable {
     }
 
     /**
-     * the entry point of the micro-service. 
+     * sets the kind of message-queue the message-bus allocates for this
+     * micro-service. Has effect only if called before the micro-service starts
+     * running.
+     * <p>
+     * @param mailboxConfig the kind and capacity of the queue
+     */
+    public final void setMailboxConfig(MailboxConfig mailboxConfig) {
+        this.mailboxConfig = mailboxConfig;
+    }
+
+    /**
+     * sets the maximal amount of messages the event loop takes from the
+     * message-queue at once. The event loop handles all of the taken messages
+     * before it waits on the queue again, so larger batches cost less per
+     * message under load. Has effect only if called before the micro-service
+     * starts running.
+     * <p>
+     * @param messageBatchSize the maximal batch size. Must be positive.
+     */
+    public final void setMessageBatchSize(int messageBatchSize) {
+        if (messageBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + messageBatchSize);
+        }
+        this.messageBatchSize = messageBatchSize;
+    }
+
+    /**
+     * the entry point of the micro-service. Runs the event loop on the calling
+     * thread. To run the micro-service without a thread of its own, use
+     * {@link ActorScheduler#start(MicroService)} instead.
      */
     @Override
     public final void run() {
-    	log("started");
-    	MessageBus messageBus = MessageBusImpl.getInstance();
-        messageBus.register(this);
-        initialize();
-        
-        log("initialized");
+        start();
         
+        MessageBus messageBus = MessageBusImpl.getInstance();
+        List<Message> batch = new ArrayList<>(messageBatchSize);
         while (!terminated) {    
             try {
-            	Message msg = messageBus.awaitMessage(this);
-            	Class<?> msgClass = msg.getClass();
-            	
-                if (Broadcast.class.isAssignableFrom(msgClass)) {
-                	Callback<Broadcast> callback = (Callback<Broadcast>)broadcastCallbacks.get(msgClass);
-                	callback.call((Broadcast)msg);
-                } else if (Request.class.isAssignableFrom(msgClass)) {
-                	Callback<Request> callback = (Callback<Request>)requestCallbacks.get(msgClass);
-                	callback.call((Request)msg);
-                } else if (RequestCompleted.class.isAssignableFrom(msgClass)) {
-                	RequestCompleted reqMsg = (RequestCompleted)msg;
-                	Callback<Object> callback = (Callback<Object>)completeCallbacks.get(reqMsg.getCompletedRequest());
-                	callback.call(reqMsg.getResult());
-                } else {
-                	throw new IllegalStateException();
-                }
+            	messageBus.awaitMessages(this, batch, messageBatchSize);
+            	for (int i = 0; i < batch.size() && !terminated; i++) {
+            		dispatch(batch.get(i));
+            	}
             } catch (InterruptedException ex) {
             	
+            } finally {
+            	batch.clear();
             }
         }
         
-        messageBus.unregister(this);
+        stop();
+    }
+    
+    /** Registers to the message-bus and initializes. Called once, before handling any message */
+    final void start() {
+    	log("started");
+        MessageBusImpl.getInstance().register(this, mailboxConfig);
+        initialize();
+        log("initialized");
+    }
+    
+    /** Unregisters from the message-bus. Called once, after the micro-service has terminated */
+    final void stop() {
+        MessageBusImpl.getInstance().unregister(this);
         log("terminated");
     }
     
-    /** Prints the given message with the service name */
+    final boolean isTerminated() {
+        return terminated;
+    }
+    
+    final int getMessageBatchSize() {
+        return messageBatchSize;
+    }
+    
+    /** Calls the callback registered for the given message */
+    final void dispatch(Message msg) {
+    	Callback<Message> callback = callbacks.get(msg.getClass());
+    	if (callback == null) {
+    		throw new IllegalStateException(getName() + " got an unsubscribed message: " + msg.getClass());
+    	}
+    	callback.call(msg);
+    }
+    
+    /** Calls the onComplete callback of the completed request */
+    private void handleRequestCompleted(RequestCompleted msg) {
+    	Callback<Object> callback = completeCallbacks.remove(msg.getCorrelationId());
+    	if (callback == null) {
+    		return;
+    	}
+    	
+    	if (msg.isTimedOut() && callback instanceof FutureCallback) {
+    		((FutureCallback<Object>) callback).completeExceptionally(new TimeoutException(
+    				msg.getCompletedRequest().getClass().getName() + " timed out"));
+    	} else {
+    		callback.call(msg.getResult());
+    	}
+    }
+    
+    /** Logs the given message with the service name, at the INFO level */
     protected void log(String msg) {
-    	System.out.println(getName() + ": " + msg);
+    	Log.log(Log.Level.INFO, getName(), msg);
+    }
+    
+    /** 
+     * Like {@link #log(String)}, but builds the message only if the INFO level is enabled.
+     * Prefer this one for messages that are expensive to build.
+     */
+    protected void log(Supplier<String> msg) {
+    	if (Log.isEnabled(Log.Level.INFO)) {
+    		log(msg.get());
+    	}
     }
 
 }
@@ -0,0 +1,33 @@
+package bgu.spl.mics;
+
+/**
+ * What the {@link MessageBus} does with a message sent to a micro-service whose bounded
+ * message-queue is full.
+ * <p>
+ * Applies only to the ordinary messages. A {@link ControlMessage}, like {@link RequestCompleted},
+ * goes to the unbounded control lane of the queue, so it is never rejected or dropped.
+ */
+public enum OverflowPolicy {
+    /** The sender waits until there is room. This is the default. */
+    BLOCK,
+    
+    /** 
+     * The message is rejected. {@link MessageBus#sendRequest(Request, MicroService)} returns 
+     * false for a rejected request, so its sender can react right away.
+     */
+    FAIL,
+    
+    /** 
+     * The oldest message in the queue is dropped to make room. A dropped request is completed
+     * with a null result, so its requester isn't left waiting. A {@link ControlMessage} - a
+     * request completion or a termination - is never dropped. Supported only by 
+     * {@link MailboxType#LINKED} queues.
+     */
+    DROP_OLDEST,
+    
+    /** 
+     * The new message is dropped. Suits broadcasts that are sent again and again, where a
+     * lagging service can afford to miss some. A request is rejected like under {@link #FAIL}.
+     */
+    DROP_NEWEST
+}
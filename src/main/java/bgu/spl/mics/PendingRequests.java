@@ -0,0 +1,95 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+
+/**
+ * The onComplete callbacks of the requests a micro-service has sent and that weren't
+ * completed yet. Every callback is kept in a slot of an array, and is identified by a 
+ * correlation id made of its slot index and a generation number. Released slots are 
+ * recycled, and the generation tells a recycled slot apart from the request that used it 
+ * before, so a late or duplicate completion can't reach the wrong callback.
+ * <p>
+ * Not thread-safe - it is used only by the event loop of its micro-service.
+ */
+@SuppressWarnings("rawtypes")
+class PendingRequests {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+    
+    private Callback[] callbacks;
+    
+    /** The current generation of every slot. Incremented whenever the slot is released. */
+    private int[] generations;
+    
+    /** Links the free slots into a stack */
+    private int[] nextFree;
+    private int freeHead;
+    
+    /** The amount of slots that were ever used. Slots from here on were never used. */
+    private int usedSlots;
+    private int size;
+    
+    PendingRequests() {
+        this.callbacks = new Callback[INITIAL_CAPACITY];
+        this.generations = new int[INITIAL_CAPACITY];
+        this.nextFree = new int[INITIAL_CAPACITY];
+        this.freeHead = NO_SLOT;
+        this.usedSlots = 0;
+        this.size = 0;
+    }
+    
+    /** 
+     * Stores the callback in a free slot
+     * @return The correlation id of the callback. Never negative.
+     */
+    long add(Callback callback) {
+        int slot;
+        if (freeHead != NO_SLOT) {
+            slot = freeHead;
+            freeHead = nextFree[slot];
+        } else {
+            if (usedSlots == callbacks.length) {
+                grow();
+            }
+            slot = usedSlots++;
+        }
+        
+        callbacks[slot] = callback;
+        size++;
+        return ((long) generations[slot] << 32) | slot;
+    }
+    
+    /** 
+     * Removes the callback with the given correlation id, and releases its slot
+     * @return The callback, or null if there is no callback with this id
+     */
+    Callback remove(long correlationId) {
+        int slot = (int) correlationId;
+        int generation = (int) (correlationId >>> 32);
+        if (correlationId < 0 || slot >= usedSlots || generations[slot] != generation 
+                || callbacks[slot] == null) {
+            return null;
+        }
+        
+        Callback callback = callbacks[slot];
+        callbacks[slot] = null;
+        // Keep the generation non-negative so the ids stay non-negative
+        generations[slot] = (generation + 1) & Integer.MAX_VALUE;
+        nextFree[slot] = freeHead;
+        freeHead = slot;
+        size--;
+        return callback;
+    }
+    
+    /** @return The amount of callbacks waiting for their requests to complete */
+    int size() {
+        return size;
+    }
+    
+    private void grow() {
+        int newCapacity = callbacks.length * 2;
+        callbacks = Arrays.copyOf(callbacks, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+        nextFree = Arrays.copyOf(nextFree, newCapacity);
+    }
+}
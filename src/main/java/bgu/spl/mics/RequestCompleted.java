@@ -1,14 +1,43 @@
 package bgu.spl.mics;
 
 @SuppressWarnings({ "rawtypes"})
-public class RequestCompleted<T> implements Message {
+public class RequestCompleted<T> implements ControlMessage {
+
+    /** The correlation id of a request that was sent without one */
+    public static final long NO_CORRELATION_ID = -1;
 
     private Request<T> completed;
     private T result;
+    private long correlationId;
+    private boolean timedOut;
 
     public RequestCompleted(Request<T> completed, T result) {
+        this(completed, result, NO_CORRELATION_ID);
+    }
+
+    /**
+     * @param completed     the completed request
+     * @param result        the result of the request
+     * @param correlationId the id the requester gave the request when it sent
+     *                      it
+     */
+    public RequestCompleted(Request<T> completed, T result, long correlationId) {
+        this(completed, result, correlationId, false);
+    }
+
+    /**
+     * @param completed     the completed request
+     * @param result        the result of the request
+     * @param correlationId the id the requester gave the request when it sent
+     *                      it
+     * @param timedOut      true if the request wasn't completed before its
+     *                      deadline, and this message was sent in its place
+     */
+    public RequestCompleted(Request<T> completed, T result, long correlationId, boolean timedOut) {
         this.completed = completed;
         this.result = result;
+        this.correlationId = correlationId;
+        this.timedOut = timedOut;
     }
 
     public Request getCompletedRequest() {
@@ -19,4 +48,16 @@ public class RequestCompleted<T> implements Message {
         return result;
     }
 
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return true if the request wasn't completed before its deadline. The
+     *         result is null in that case.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
 }
@@ -0,0 +1,35 @@
+package bgu.spl.mics;
+
+/**
+ * The policy the {@link MessageBus} uses to choose which of the micro-services subscribed to
+ * a {@link Request} type receives a sent request of that type. The policy is chosen per
+ * request type, by the first micro-service that subscribes to it.
+ */
+public enum RoutingPolicy {
+    /** The subscribers receive the requests in turns. This is the default policy. */
+    ROUND_ROBIN,
+    
+    /** The request is sent to the subscriber with the fewest messages waiting in its queue. */
+    SHORTEST_QUEUE,
+    
+    /** 
+     * Two random subscribers are sampled and the request is sent to the one with the fewer
+     * messages waiting in its queue. Almost as good as {@link #SHORTEST_QUEUE} but doesn't 
+     * scan all of the subscribers.
+     */
+    POWER_OF_TWO_CHOICES,
+    
+    /** 
+     * The request is sent to the subscriber with the shortest expected wait, estimated from
+     * its queue length and an exponentially weighted moving average of the time it took it 
+     * to handle its previous messages.
+     */
+    LEAST_LATENCY,
+    
+    /** 
+     * The requests are not routed to a specific subscriber. Instead, all of the subscribers 
+     * take requests from one shared queue whenever their own queue is empty. Suits handlers
+     * that are interchangeable, since a slow handler never holds requests back.
+     */
+    WORK_GROUP
+}
@@ -0,0 +1,185 @@
+package bgu.spl.mics.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes lines to an output stream on a background thread. The lines are passed to the thread
+ * through a bounded ring buffer, like in {@link RingBufferMessageQueue}: writers claim a slot 
+ * with a CAS and store the line in it, and the background thread is the only reader.
+ * <p>
+ * The background thread writes the lines in batches, and flushes the output once per batch.
+ * While the buffer is empty it sleeps for a short while, so writing a line never has to wake 
+ * it up. When the buffer is full, the writers wait for room.
+ */
+public class AsyncLogWriter implements AutoCloseable {
+	/** The maximal amount of lines written before the output is flushed */
+	private static final int BATCH_SIZE = 1024;
+	
+	/** How long the background thread sleeps while the buffer is empty */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	
+	private final AtomicReferenceArray<String> buffer;
+	private final int mask;
+	
+	/** The index of the next slot a writer will claim */
+	private final AtomicLong producerIndex;
+	
+	/** The index of the next slot the background thread will read. Written only by it. */
+	private volatile long consumerIndex;
+	
+	/** All of the lines before this index were written and flushed. Written only by the background thread. */
+	private volatile long flushedIndex;
+	
+	/** Guards the output. Held by the background thread while it writes a batch. */
+	private final Lock outputLock;
+	private Writer output;
+	
+	private final Thread thread;
+	
+	/** Flushes the buffer on exit. Removed when the writer is closed. */
+	private final Thread shutdownHook;
+	
+	/** Set once the writer is closed, to stop the background thread */
+	private volatile boolean isClosed;
+	
+	/**
+	 * @param capacity The minimal amount of lines waiting to be written. Rounded up to a power of 2.
+	 * @param out The initial output
+	 */
+	public AsyncLogWriter(int capacity, OutputStream out) {
+		int actualCapacity = Integer.highestOneBit(capacity);
+		if (actualCapacity < capacity) {
+			actualCapacity <<= 1;
+		}
+		this.buffer = new AtomicReferenceArray<>(actualCapacity);
+		this.mask = actualCapacity - 1;
+		this.producerIndex = new AtomicLong(0);
+		this.consumerIndex = 0;
+		this.flushedIndex = 0;
+		this.outputLock = new ReentrantLock();
+		this.output = createWriter(out);
+		
+		this.isClosed = false;
+		this.thread = new Thread(this::run, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+		// The thread is a daemon, so whatever is still in the buffer has to be written on exit
+		this.shutdownHook = new Thread(this::flush, "log-flusher");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+	
+	/** Adds a line to the buffer, waiting for room if it is full */
+	public void write(String line) {
+		long index;
+		while (true) {
+			index = producerIndex.get();
+			if (index - consumerIndex > mask) {
+				LockSupport.unpark(thread);
+				Thread.yield();
+			} else if (producerIndex.compareAndSet(index, index + 1)) {
+				break;
+			}
+		}
+		buffer.set((int) index & mask, line);
+	}
+	
+	/** Waits until all of the lines written so far were written to the output and flushed */
+	public void flush() {
+		long target = producerIndex.get();
+		while (flushedIndex < target) {
+			LockSupport.unpark(thread);
+			Thread.yield();
+		}
+	}
+	
+	/** Writes the lines to the given stream from now on, after the ones already written are flushed */
+	public void setOutput(OutputStream out) {
+		flush();
+		outputLock.lock();
+		try {
+			output.flush();
+			output = createWriter(out);
+		} catch (IOException e) {
+			System.err.println("log-writer: failed to flush the previous output: " + e);
+			output = createWriter(out);
+		} finally {
+			outputLock.unlock();
+		}
+	}
+	
+	/** 
+	 * Flushes the lines written so far, then stops the background thread and removes the 
+	 * shutdown hook. Nothing may be written afterwards.
+	 */
+	@Override
+	public void close() {
+		flush();
+		isClosed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// Already shutting down, so the hook runs anyway - and finds nothing to flush
+		}
+	}
+	
+	private void run() {
+		while (!isClosed) {
+			long index = consumerIndex;
+			if (index == producerIndex.get()) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				continue;
+			}
+			
+			outputLock.lock();
+			try {
+				for (int i = 0; i < BATCH_SIZE && index != producerIndex.get(); i++) {
+					output.write(take(index));
+					output.write(System.lineSeparator());
+					index++;
+					consumerIndex = index;
+				}
+				output.flush();
+			} catch (IOException e) {
+				// The lines are lost, but the following ones may still make it
+				System.err.println("log-writer: failed to write to the output: " + e);
+			} finally {
+				outputLock.unlock();
+			}
+			flushedIndex = index;
+		}
+	}
+	
+	/** Takes the line at the given index, waiting for its writer to store it if needed */
+	private String take(long index) {
+		int slot = (int) index & mask;
+		String line;
+		do {
+			// The writer has claimed the slot, and will store the line very soon
+			line = buffer.get(slot);
+		} while (line == null);
+		buffer.lazySet(slot, null);
+		return line;
+	}
+	
+	private static Writer createWriter(OutputStream out) {
+		return new BufferedWriter(new OutputStreamWriter(out), OUTPUT_BUFFER_SIZE);
+	}
+}
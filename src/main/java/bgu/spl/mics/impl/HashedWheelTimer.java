@@ -0,0 +1,162 @@
+package bgu.spl.mics.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.Log;
+
+/**
+ * A timer for a large amount of short timeouts that are usually cancelled, such as request
+ * deadlines. The timeouts are kept in a wheel of buckets, each covering one tick of time. A
+ * single thread advances the wheel every tick and runs the tasks of the timeouts that expired,
+ * so scheduling and cancelling are O(1), at the cost of firing up to a tick late.
+ * <p>
+ * The tasks run on the timer thread, so they must be short.
+ */
+class HashedWheelTimer {
+	/** A scheduled task */
+	static class Timeout {
+		private final long deadline;
+		private volatile Runnable task;
+		
+		/** The amount of full wheel turns left until the deadline. Used only by the timer thread */
+		private long remainingRounds;
+		
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		/** 
+		 * Cancels the task, if it hasn't run yet. The timeout itself is removed from the wheel
+		 * only when its bucket comes up, but it no longer references the task.
+		 */
+		void cancel() {
+			task = null;
+		}
+	}
+	
+	private final long tickNanos;
+	private final List<List<Timeout>> wheel;
+	private final int mask;
+	
+	/** Timeouts that were scheduled but not put in the wheel yet */
+	private final Queue<Timeout> newTimeouts;
+	
+	private final String threadName;
+	private volatile Thread workerThread;
+	private long startTime;
+	private long currentTick;
+	
+	/**
+	 * @param threadName The name of the timer thread
+	 * @param tickDuration The duration of a single tick
+	 * @param unit The unit of tickDuration
+	 * @param ticksPerWheel The amount of buckets in the wheel. Rounded up to a power of 2.
+	 */
+	HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		int buckets = Integer.highestOneBit(ticksPerWheel);
+		if (buckets < ticksPerWheel) {
+			buckets <<= 1;
+		}
+		
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new ArrayList<>(buckets);
+		for (int i = 0; i < buckets; i++) {
+			wheel.add(new ArrayList<>());
+		}
+		this.mask = buckets - 1;
+		this.newTimeouts = new ConcurrentLinkedQueue<>();
+		this.threadName = threadName;
+		this.workerThread = null;
+	}
+	
+	/** 
+	 * Schedules the task to run once the delay passes. Starts the timer thread if needed.
+	 * @return A handle that can cancel the task
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		start();
+		Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+	
+	private void start() {
+		if (workerThread != null) {
+			return;
+		}
+		synchronized (this) {
+			if (workerThread == null) {
+				startTime = System.nanoTime();
+				currentTick = 0;
+				Thread thread = new Thread(this::run, threadName);
+				thread.setDaemon(true);
+				thread.start();
+				workerThread = thread;
+			}
+		}
+	}
+	
+	private void run() {
+		while (true) {
+			waitForNextTick();
+			transferNewTimeouts();
+			expireBucket(wheel.get((int) (currentTick & mask)));
+			currentTick++;
+		}
+	}
+	
+	/** Sleeps until the current tick ends. The ticks are counted from the start time, so they don't drift */
+	private void waitForNextTick() {
+		long tickEnd = startTime + (currentTick + 1) * tickNanos;
+		long now;
+		while ((now = System.nanoTime()) < tickEnd) {
+			LockSupport.parkNanos(this, tickEnd - now);
+		}
+	}
+	
+	private void transferNewTimeouts() {
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.task == null) {
+				continue;
+			}
+			
+			// A timeout is never put in a bucket that has already passed - if its deadline 
+			// has already passed, it is expired in the current bucket.
+			long deadlineTick = Math.max(currentTick, (timeout.deadline - startTime) / tickNanos);
+			timeout.remainingRounds = (deadlineTick - currentTick) / wheel.size();
+			wheel.get((int) (deadlineTick & mask)).add(timeout);
+		}
+	}
+	
+	private void expireBucket(List<Timeout> bucket) {
+		int kept = 0;
+		for (int i = 0; i < bucket.size(); i++) {
+			Timeout timeout = bucket.get(i);
+			Runnable task = timeout.task;
+			if (task == null) {
+				continue;
+			}
+			
+			if (timeout.remainingRounds > 0) {
+				timeout.remainingRounds--;
+				bucket.set(kept++, timeout);
+			} else {
+				timeout.task = null;
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// A failing task must not stop the timer
+					Log.log(Log.Level.ERROR, threadName, "timeout task failed: " + e);
+				}
+			}
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+}
@@ -0,0 +1,88 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the messages that were sent but not handled yet, so that one can wait until the
+ * services have quiesced. A message is counted from just before it is queued until its 
+ * receiver comes back for more messages - by then, every message its handler has sent is 
+ * already counted, so the count never drops to 0 while there is still work to do.
+ * <p>
+ * Counting is disabled by default, since a single counter shared by all of the senders and 
+ * the receivers costs throughput.
+ */
+class InFlightMessages {
+	private volatile boolean isEnabled;
+	private final AtomicLong count;
+	private final Lock lock;
+	private final Condition quiescent;
+	
+	InFlightMessages() {
+		this.isEnabled = false;
+		this.count = new AtomicLong(0);
+		this.lock = new ReentrantLock();
+		this.quiescent = lock.newCondition();
+	}
+	
+	/** 
+	 * Starts counting. Must only be called while no message is queued or being handled, since 
+	 * finishing a message that was never counted would cancel out one that was.
+	 */
+	void enable() {
+		isEnabled = true;
+	}
+	
+	/** Stops counting, and forgets the messages counted so far */
+	void disable() {
+		isEnabled = false;
+		count.set(0);
+		lock.lock();
+		try {
+			// Anyone still waiting would wait forever
+			quiescent.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	boolean isEnabled() {
+		return isEnabled;
+	}
+	
+	/** Called just before a message is queued */
+	void added() {
+		if (isEnabled) {
+			count.incrementAndGet();
+		}
+	}
+	
+	/** Called when messages were handled, dropped, or couldn't be queued */
+	void finished(int messages) {
+		if (isEnabled && messages > 0 && count.addAndGet(-messages) <= 0) {
+			lock.lock();
+			try {
+				quiescent.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/** Waits until all of the counted messages were handled */
+	void awaitQuiescence() throws InterruptedException {
+		if (!isEnabled) {
+			throw new IllegalStateException("Quiescence tracking is not enabled");
+		}
+		lock.lock();
+		try {
+			while (isEnabled && count.get() > 0) {
+				quiescent.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
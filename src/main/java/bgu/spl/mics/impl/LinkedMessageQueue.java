@@ -0,0 +1,61 @@
+package bgu.spl.mics.impl;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import bgu.spl.mics.Message;
+
+/**
+ * A {@link MessageQueue} backed by a {@link LinkedBlockingQueue}
+ */
+class LinkedMessageQueue implements MessageQueue {
+	private final BlockingQueue<Message> queue;
+	
+	LinkedMessageQueue(int capacity) {
+		this.queue = new LinkedBlockingQueue<>(capacity);
+	}
+
+	@Override
+	public boolean offer(Message m) {
+		return queue.offer(m);
+	}
+
+	@Override
+	public void put(Message m) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(m);
+				break;
+			} catch (InterruptedException e) {
+				// The sender can't give up on the message - keep waiting, and restore the
+				// interrupt status afterwards.
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public Message poll() {
+		return queue.poll();
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> c, int maxMessages) {
+		return queue.drainTo(c, maxMessages);
+	}
+
+	@Override
+	public Message take() throws InterruptedException {
+		return queue.take();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,526 @@
+package bgu.spl.mics.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import bgu.spl.mics.CoalescibleBroadcast;
+import bgu.spl.mics.ControlMessage;
+import bgu.spl.mics.MailboxConfig;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.Request;
+
+/**
+ * The message queue of a single MicroService, together with the statistics the
+ * MessageBus uses when routing requests to it. When its own queue is empty, the mailbox
+ * also takes messages from the {@link WorkGroup}s its owner is a member of.
+ * <p>
+ * Any thread may add messages, but only the owner service takes them. When the queue is 
+ * full, the {@link OverflowPolicy} of the mailbox decides what happens to new messages.
+ * <p>
+ * A {@link CoalescibleBroadcast} isn't queued itself. Its type has a slot that holds the latest
+ * broadcast, and the slot is queued in its place - until the owner takes it, newer broadcasts
+ * of the type just replace the one in the slot.
+ * <p>
+ * A {@link ControlMessage} goes to a separate unbounded lane, which is taken before the queue.
+ * A wake-up is added to the queue after it, in case the owner is waiting on the queue.
+ */
+class Mailbox {
+	/** The weight of the newest sample in the handling time average */
+	private static final double LATENCY_SMOOTHING = 0.2;
+	
+	private static final WorkGroup.Member[] NO_WORK_GROUPS = new WorkGroup.Member[0];
+	
+	/** Added to the queue by a work group in order to wake the owner up. Never returned by take() */
+	private static final Message WAKE_UP = new Message() {};
+	
+	/** The place of a CoalescibleBroadcast type in the queue. Never returned by take() */
+	private static final class CoalescedSlot implements Message {
+		/** The latest broadcast of the type, or null while the slot isn't in the queue */
+		final AtomicReference<Message> latest = new AtomicReference<>();
+	}
+	
+	private final MicroService owner;
+	private final MessageQueue queue;
+	
+	/** The lane of the control messages. Taken before the queue */
+	private final Queue<Message> controlLane;
+	
+	/** True while a wake-up for the control lane is in the queue, and the owner hasn't seen it yet */
+	private final AtomicBoolean controlWakeUpQueued;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final InFlightMessages inFlightMessages;
+	
+	/** The amount of new messages refused because the queue was full */
+	private final LongAdder rejected;
+	
+	/** The amount of queued messages dropped to make room for new ones */
+	private final LongAdder dropped;
+	
+	/** The amount of queued broadcasts replaced by newer ones */
+	private final LongAdder coalesced;
+	
+	/** The slots of the CoalescibleBroadcast types, created on their first broadcast */
+	private final ConcurrentMap<Class<?>, CoalescedSlot> coalescedSlots;
+	
+	/** Used by the owner to replace the wake-ups and slots in the messages it drains */
+	private final List<Message> drained;
+	
+	/** The work groups the owner is a member of. A copy-on-write array. */
+	private volatile WorkGroup.Member[] workGroups;
+	
+	/** Set once the owner has unregistered. No messages are added afterwards */
+	private volatile boolean isRetired;
+	
+	/** True while the owner is waiting on the queue and hasn't been woken up by a work group yet */
+	private final AtomicBoolean waiting;
+	
+	/** 
+	 * An exponentially weighted moving average of the time (in nanoseconds) it takes the owner
+	 * to handle a message. Written only by the owner, read by the request senders.
+	 */
+	private volatile double averageHandlingTime;
+	
+	/** The time the owner took its last messages, or -1 if it hasn't taken any yet */
+	private long lastTakeTime;
+	
+	/** 
+	 * The amount of messages the owner took the last time. Volatile so enabling quiescence
+	 * tracking can tell whether the owner is handling messages.
+	 */
+	private volatile int lastTakeCount;
+	
+	/** 
+	 * Called after every message added to the queue, if set. Lets owners without a thread 
+	 * of their own get scheduled when messages arrive.
+	 */
+	private volatile Runnable messageListener;
+	
+	Mailbox(MicroService owner, MailboxConfig config, InFlightMessages inFlightMessages) {
+		this.owner = owner;
+		this.inFlightMessages = inFlightMessages;
+		this.queue = createQueue(config);
+		this.controlLane = new ConcurrentLinkedQueue<>();
+		this.controlWakeUpQueued = new AtomicBoolean(false);
+		this.capacity = config.getCapacity();
+		this.overflowPolicy = config.getOverflowPolicy();
+		this.rejected = new LongAdder();
+		this.dropped = new LongAdder();
+		this.coalesced = new LongAdder();
+		this.coalescedSlots = new ConcurrentHashMap<>();
+		this.drained = new ArrayList<>();
+		this.workGroups = NO_WORK_GROUPS;
+		this.waiting = new AtomicBoolean(false);
+		this.isRetired = false;
+		this.averageHandlingTime = 0;
+		this.lastTakeTime = -1;
+		this.lastTakeCount = 0;
+	}
+	
+	MicroService getOwner() {
+		return owner;
+	}
+	
+	int getCapacity() {
+		return capacity;
+	}
+	
+	OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/** 
+	 * Adds the message to the end of the queue. If the queue is full, handles the message
+	 * according to the overflow policy.
+	 * @return false if the message was rejected
+	 */
+	boolean add(Message m) {
+		if (isRetired) {
+			// A completion for a requester that has unregistered since it sent its request
+			return false;
+		}
+		boolean isControl = m instanceof ControlMessage;
+		if (m instanceof CoalescibleBroadcast) {
+			CoalescedSlot slot = coalescedSlots.computeIfAbsent(m.getClass(), t -> new CoalescedSlot());
+			if (slot.latest.getAndSet(m) != null) {
+				// The slot is already in the queue, and will now deliver m instead
+				coalesced.increment();
+				return true;
+			}
+			m = slot;
+		}
+		
+		// Counted before it can be taken, or else it could be handled before being counted
+		inFlightMessages.added();
+		if (isControl) {
+			addControl(m);
+			notifyListener();
+			return true;
+		}
+		boolean isAdded = offer(m);
+		if (isAdded) {
+			notifyListener();
+		} else {
+			inFlightMessages.finished(1);
+		}
+		return isAdded;
+	}
+	
+	void setMessageListener(Runnable messageListener) {
+		this.messageListener = messageListener;
+	}
+	
+	private void addControl(Message m) {
+		controlLane.add(m);
+		// A single wake-up is enough for all of the control messages added before the owner sees it.
+		// If the queue is full the owner isn't waiting, so there is no need for one.
+		if (controlWakeUpQueued.compareAndSet(false, true)) {
+			queue.offer(WAKE_UP);
+		}
+	}
+	
+	private boolean offer(Message m) {
+		if (queue.offer(m)) {
+			return true;
+		}
+		
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			do {
+				dropOldest();
+			} while (!queue.offer(m));
+			return true;
+		case FAIL:
+		case DROP_NEWEST:
+			if (!(m instanceof CoalescedSlot)) {
+				rejected.increment();
+				return false;
+			}
+			// Fall through - a slot is queued at most once per type
+		case BLOCK:
+		default:
+			queue.put(m);
+			return true;
+		}
+	}
+	
+	/** @return A snapshot of the counters of the mailbox */
+	MailboxStatistics getStatistics() {
+		return new MailboxStatistics(capacity, size(), rejected.sum(), dropped.sum(), coalesced.sum());
+	}
+	
+	/** 
+	 * Takes the next message, waiting for one if the queue and the work groups are empty. 
+	 * Should only be called by the owner.
+	 */
+	Message take() throws InterruptedException {
+		finishHandling();
+		Message m = unwrap(takeFirst());
+		startHandling(1);
+		return m;
+	}
+	
+	/** 
+	 * Takes up to {@code maxMessages} messages into {@code batch}, waiting for the first one
+	 * if the queue and the work groups are empty. Should only be called by the owner.
+	 * <p>
+	 * Only the first message may come from a work group - the rest are taken from the owner's
+	 * own queue, so that a single member doesn't grab all of the shared requests at once.
+	 * @return The amount of messages added to {@code batch}
+	 */
+	int take(Collection<? super Message> batch, int maxMessages) throws InterruptedException {
+		finishHandling();
+		return takeRest(batch, takeFirst(), maxMessages);
+	}
+	
+	/** 
+	 * Like {@link #take(Collection, int)}, but returns 0 instead of waiting if the queue and 
+	 * the work groups are empty. Should only be called by the owner.
+	 */
+	int poll(Collection<? super Message> batch, int maxMessages) {
+		finishHandling();
+		Message first = pollFirst();
+		if (first == null) {
+			startHandling(0);
+			return 0;
+		}
+		return takeRest(batch, first, maxMessages);
+	}
+	
+	/** 
+	 * Called when the owner has unregistered. The messages it has taken last and the messages 
+	 * still in the queue will never be handled, so they are no longer in flight. The requests 
+	 * still in the queue are completed with null, so their requesters aren't left waiting.
+	 * Should only be called by the owner, or when the owner is no longer running.
+	 */
+	@SuppressWarnings("unchecked")
+	void retire() {
+		isRetired = true;
+		int unhandled = lastTakeCount + controlLane.size();
+		lastTakeCount = 0;
+		controlLane.clear();
+		Message m;
+		while ((m = queue.poll()) != null) {
+			if (m == WAKE_UP) {
+				continue;
+			}
+			unhandled++;
+			m = unwrap(m);
+			if (m instanceof Request) {
+				MessageBusImpl.getInstance().complete((Request<Object>) m, null);
+			}
+		}
+		inFlightMessages.finished(unhandled);
+	}
+	
+	/** 
+	 * @return true if no message is waiting in the mailbox, and the owner isn't handling any.
+	 *         Only reliable while no messages are sent to the mailbox.
+	 */
+	boolean isIdle() {
+		return size() == 0 && lastTakeCount == 0;
+	}
+	
+	/** @return The amount of messages waiting in the queue and the control lane */
+	int size() {
+		return queue.size() + controlLane.size();
+	}
+	
+	/** 
+	 * @return The estimated time (in nanoseconds) a request sent now will wait until the owner 
+	 *         finishes handling it
+	 */
+	double getExpectedLatency() {
+		return (size() + 1) * averageHandlingTime;
+	}
+	
+	/** 
+	 * Wakes the owner up if it is waiting for messages
+	 * @return true if the owner was waiting
+	 */
+	boolean wakeUp() {
+		if (waiting.compareAndSet(true, false)) {
+			// A waiting owner has an empty queue, so there is always room
+			queue.offer(WAKE_UP);
+			notifyListener();
+			return true;
+		}
+		return false;
+	}
+	
+	synchronized void joinWorkGroup(WorkGroup.Member member) {
+		for (WorkGroup.Member existing : workGroups) {
+			if (existing.group == member.group) {
+				return;
+			}
+		}
+		WorkGroup.Member[] newGroups = Arrays.copyOf(workGroups, workGroups.length + 1);
+		newGroups[workGroups.length] = member;
+		workGroups = newGroups;
+	}
+	
+	synchronized void leaveWorkGroup(WorkGroup group) {
+		workGroups = Arrays.stream(workGroups)
+				.filter(member -> member.group != group)
+				.toArray(WorkGroup.Member[]::new);
+	}
+	
+	/** 
+	 * Removes the oldest message in the queue, if there is one. Control messages are never 
+	 * dropped, since they are added to the control lane and not to the queue.
+	 */
+	@SuppressWarnings("unchecked")
+	private void dropOldest() {
+		// Only LINKED queues may get here, and their poll() is safe to call from any thread
+		Message oldest = queue.poll();
+		if (oldest == null || oldest == WAKE_UP) {
+			return;
+		}
+		dropped.increment();
+		inFlightMessages.finished(1);
+		oldest = unwrap(oldest);
+		if (oldest instanceof Request) {
+			// Don't leave the requester waiting for a request that will never be handled
+			MessageBusImpl.getInstance().complete((Request<Object>) oldest, null);
+		}
+	}
+	
+	/** 
+	 * Takes the next message that isn't a wake-up, waiting for one if needed. Slots are
+	 * returned as is, and should be unwrapped by the caller.
+	 */
+	private Message takeFirst() throws InterruptedException {
+		Message m;
+		do {
+			m = pollControlLane();
+			if (m == null) {
+				m = queue.poll();
+			}
+			if (m == null) {
+				m = pollWorkGroups();
+			}
+			if (m == null) {
+				m = waitForMessage();
+			}
+		} while (m == WAKE_UP);
+		return m;
+	}
+	
+	/** 
+	 * Takes the next message that isn't a wake-up without waiting. If there is none, marks the 
+	 * owner as waiting, so the work groups will wake it up when they get a message.
+	 */
+	private Message pollFirst() {
+		waiting.set(false);
+		Message m;
+		do {
+			m = pollControlLane();
+			if (m == null) {
+				m = queue.poll();
+			}
+			if (m == null) {
+				m = pollWorkGroups();
+			}
+			if (m == null && workGroups.length > 0) {
+				markIdle();
+				m = pollWorkGroups();
+				if (m != null) {
+					waiting.set(false);
+				}
+			}
+		} while (m == WAKE_UP);
+		return m;
+	}
+	
+	/** 
+	 * Adds the first message, then the rest of the control lane and then the rest of the queue, 
+	 * up to maxMessages, to the batch
+	 */
+	private int takeRest(Collection<? super Message> batch, Message first, int maxMessages) {
+		int count = 1;
+		batch.add(unwrap(first));
+		Message control;
+		while (count < maxMessages && (control = pollControlLane()) != null) {
+			batch.add(unwrap(control));
+			count++;
+		}
+		if (count < maxMessages) {
+			// Always drained through the owner's list, since a wake-up or a slot may be queued 
+			// at any moment, including while draining
+			queue.drainTo(drained, maxMessages - count);
+			for (Message m : drained) {
+				if (m != WAKE_UP) {
+					batch.add(unwrap(m));
+					count++;
+				}
+			}
+			drained.clear();
+		}
+		startHandling(count);
+		return count;
+	}
+	
+	/** @return The next control message, or null if the control lane is empty */
+	private Message pollControlLane() {
+		// Cleared before polling, so a control message added after the poll queues a new wake-up
+		if (controlWakeUpQueued.get()) {
+			controlWakeUpQueued.set(false);
+		}
+		return controlLane.poll();
+	}
+	
+	/** @return The latest broadcast of a taken slot, or any other taken message itself */
+	private static Message unwrap(Message m) {
+		if (m instanceof CoalescedSlot) {
+			return ((CoalescedSlot) m).latest.getAndSet(null);
+		}
+		return m;
+	}
+	
+	private void notifyListener() {
+		Runnable listener = messageListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	/** 
+	 * Marks the owner as waiting in all of its work groups. Must be done before checking the 
+	 * work groups for the last time, or else a request that was sent right after the check 
+	 * would not wake the owner up.
+	 */
+	private void markIdle() {
+		waiting.set(true);
+		for (WorkGroup.Member member : workGroups) {
+			member.group.markIdle(member);
+		}
+	}
+	
+	/** Called when the owner has taken messages, and is about to handle them */
+	private void startHandling(int messages) {
+		lastTakeTime = System.nanoTime();
+		lastTakeCount = messages;
+	}
+	
+	/** 
+	 * Called when the owner asks for more messages. The owner only comes back for more messages
+	 * after it has finished handling the previous ones, so this is where their handling ends.
+	 */
+	private void finishHandling() {
+		if (lastTakeCount > 0) {
+			long sample = (System.nanoTime() - lastTakeTime) / lastTakeCount;
+			averageHandlingTime += LATENCY_SMOOTHING * (sample - averageHandlingTime);
+			inFlightMessages.finished(lastTakeCount);
+			lastTakeCount = 0;
+		}
+	}
+	
+	private static MessageQueue createQueue(MailboxConfig config) {
+		switch (config.getType()) {
+		case RING_BUFFER:
+			return new RingBufferMessageQueue(config.getCapacity());
+		case LINKED:
+		default:
+			return new LinkedMessageQueue(config.getCapacity());
+		}
+	}
+	
+	private Message pollWorkGroups() {
+		for (WorkGroup.Member member : workGroups) {
+			Message m = member.group.poll();
+			if (m != null) {
+				return m;
+			}
+		}
+		return null;
+	}
+	
+	/** Blocks until a message arrives to the queue, or until a work group wakes us up */
+	private Message waitForMessage() throws InterruptedException {
+		if (workGroups.length == 0) {
+			return queue.take();
+		}
+		
+		markIdle();
+		try {
+			Message m = pollWorkGroups();
+			if (m == null) {
+				m = queue.take();
+			}
+			return m;
+		} finally {
+			waiting.set(false);
+		}
+	}
+}
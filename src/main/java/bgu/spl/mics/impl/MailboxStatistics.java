@@ -0,0 +1,49 @@
+package bgu.spl.mics.impl;
+
+/**
+ * A snapshot of the counters of a micro-service message-queue, used for sizing the queues.
+ */
+public class MailboxStatistics {
+	private final int capacity;
+	private final int size;
+	private final long rejected;
+	private final long dropped;
+	private final long coalesced;
+	
+	MailboxStatistics(int capacity, int size, long rejected, long dropped, long coalesced) {
+		this.capacity = capacity;
+		this.size = size;
+		this.rejected = rejected;
+		this.dropped = dropped;
+		this.coalesced = coalesced;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** @return The amount of messages that were waiting in the queue */
+	public int getSize() {
+		return size;
+	}
+
+	/** @return The amount of new messages that were refused because the queue was full */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/** @return The amount of queued messages that were dropped to make room for new ones */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/** @return The amount of queued broadcasts that were replaced by newer ones */
+	public long getCoalesced() {
+		return coalesced;
+	}
+	
+	@Override
+	public String toString() {
+		return "size " + size + "/" + capacity + ", rejected " + rejected + ", dropped " + dropped + ", coalesced " + coalesced;
+	}
+}
@@ -1,29 +1,43 @@
 package bgu.spl.mics.impl;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
-import bgu.spl.app.RoundRobinList;
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.KeyedBroadcast;
+import bgu.spl.mics.Log;
+import bgu.spl.mics.MailboxConfig;
 import bgu.spl.mics.Message;
 import bgu.spl.mics.MessageBus;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.Request;
 import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.RoutingPolicy;
 
 /**
  * The MessageBus. Used to send messages between services
  * For all overridden method explanations, see MessageBus
+ * <p>
+ * All of the registries are concurrent maps. Subscriber lists are never modified in place -
+ * subscribe and unregister replace them with a new copy, so the senders only read an
+ * immutable snapshot and never take a lock. Request handlers are picked by a lock-free
+ * {@link RequestRouter}.
  */
 @SuppressWarnings({ "rawtypes"})
 public class MessageBusImpl implements MessageBus {
 	
+	private static final Mailbox[] NO_MAILBOXES = new Mailbox[0];
+	private static final BroadcastListeners NO_LISTENERS = new BroadcastListeners(Broadcast.class, NO_MAILBOXES);
+	
 	/** The singleton holder for our class */ 
 	private static class SingletonHolder {
 		private static MessageBusImpl instance = new MessageBusImpl();
@@ -31,27 +45,114 @@ public class MessageBusImpl implements MessageBus {
 	
 	/** 
 	 * Contains the listening MicroServices for every Request. For each request, the
-	 * listener is chosen in a round-robin fashion as explained in the instructions.
+	 * listener is chosen according to the routing policy of the request type.
 	 */
-	private Map<Class<? extends Request>, RoundRobinList<MicroService>> requestListeners;
+	private ConcurrentMap<Class<? extends Request>, RequestRouter> requestListeners;
 	
 	/** Contains the Message queues for all of the MicroServices */ 
-	private Map<MicroService, BlockingQueue<Message>> messageQueues;
+	private ConcurrentMap<MicroService, Mailbox> messageQueues;
+	
+	/** 
+	 * Contains the queues of the listening Microservices for every Broadcast. The snapshots 
+	 * are copy-on-write and must never be modified after being put in the map.
+	 */
+	private ConcurrentMap<Class<? extends Broadcast>, BroadcastListeners> broadcastListeners;
+	
+	/** 
+	 * Contains the queues of the Microservices listening to each key of a KeyedBroadcast type.
+	 * Copy-on-write snapshots, like broadcastListeners.
+	 */
+	private ConcurrentMap<BroadcastKey, Mailbox[]> keyedBroadcastListeners;
+	
+	/** A snapshot of the queues listening to all of the broadcasts of a type */
+	private static final class BroadcastListeners {
+		final Mailbox[] mailboxes;
+		
+		/** 
+		 * The same queues, kept only for KeyedBroadcast types. Lets a keyed broadcast skip the 
+		 * services that got it for all of the keys without scanning the array for each one.
+		 */
+		final Set<Mailbox> mailboxSet;
+		
+		BroadcastListeners(Class<?> type, Mailbox[] mailboxes) {
+			this.mailboxes = mailboxes;
+			this.mailboxSet = KeyedBroadcast.class.isAssignableFrom(type) 
+					? new HashSet<>(Arrays.asList(mailboxes)) : null;
+		}
+	}
+	
+	/** A KeyedBroadcast type together with one of its keys */
+	private static final class BroadcastKey {
+		final Class<?> type;
+		final Object key;
+		
+		BroadcastKey(Class<?> type, Object key) {
+			this.type = type;
+			this.key = key;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof BroadcastKey)) {
+				return false;
+			}
+			BroadcastKey other = (BroadcastKey) o;
+			return type == other.type && Objects.equals(key, other.key);
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + Objects.hashCode(key);
+		}
+	}
 	
-	/** Contains the listening Microservices for every Broadcast */
-	private Map<Class<? extends Broadcast>, Set<MicroService>> broadcastListeners;
+	/** The tick duration of the request deadlines timer */
+	private static final long DEADLINE_TICK_MILLIS = 10;
+	private static final int DEADLINE_TICKS_PER_WHEEL = 512;
+	
+	/** The requester of a request that is awaiting completion */
+	private static final class Requester {
+		/** The requester's mailbox, or null if it wasn't registered */
+		final Mailbox mailbox;
+		final long correlationId;
+		
+		/** The deadline of the request, or null if it has none */
+		volatile HashedWheelTimer.Timeout deadline;
+		
+		Requester(Mailbox mailbox, long correlationId) {
+			this.mailbox = mailbox;
+			this.correlationId = correlationId;
+			this.deadline = null;
+		}
+	}
 	
 	/** 
 	 * Maps between the requests that are awaiting completion, with their
 	 * requester MicroService. 
 	 */
-	private Map<Request<?>, MicroService> awaitingRequests;
+	private ConcurrentMap<Request<?>, Requester> awaitingRequests;
+	
+	/** Expires the requests that weren't completed before their deadline */
+	private HashedWheelTimer deadlineTimer;
+	
+	/** Counts the messages that weren't handled yet, when quiescence tracking is enabled */
+	private InFlightMessages inFlightMessages;
+	
+	/** The counters of the mailboxes that were already unregistered */
+	private LongAdder retiredRejected;
+	private LongAdder retiredDropped;
 	
 	private MessageBusImpl() {
-		this.messageQueues = new HashMap<>();
-		this.requestListeners = new HashMap<>();
-		this.broadcastListeners = new HashMap<>();
-		this.awaitingRequests = new HashMap<>();
+		this.messageQueues = new ConcurrentHashMap<>();
+		this.requestListeners = new ConcurrentHashMap<>();
+		this.broadcastListeners = new ConcurrentHashMap<>();
+		this.keyedBroadcastListeners = new ConcurrentHashMap<>();
+		this.awaitingRequests = new ConcurrentHashMap<>();
+		this.deadlineTimer = new HashedWheelTimer("MessageBus deadlines", DEADLINE_TICK_MILLIS, 
+				TimeUnit.MILLISECONDS, DEADLINE_TICKS_PER_WHEEL);
+		this.retiredRejected = new LongAdder();
+		this.retiredDropped = new LongAdder();
+		this.inFlightMessages = new InFlightMessages();
 	}
 	
 	public static MessageBusImpl getInstance() { 
@@ -60,138 +161,393 @@ public class MessageBusImpl implements MessageBus {
 
 	@Override
 	public void subscribeRequest(Class<? extends Request> type, MicroService m) {
-		synchronized (requestListeners) {
-			RoundRobinList<MicroService> listeners = requestListeners.get(type);
+		subscribeRequest(type, m, RoutingPolicy.ROUND_ROBIN);
+	}
+
+	@Override
+	public void subscribeRequest(Class<? extends Request> type, MicroService m, RoutingPolicy policy) {
+		Mailbox mailbox = getMailbox(m);
+		
+		// compute() runs atomically per key, so concurrent subscribers of the same type
+		// can't lose each other's updates.
+		RequestRouter router = requestListeners.compute(type, (t, listeners) -> {
 			if (listeners == null) {
-				listeners = new RoundRobinList<>();
-				requestListeners.put(type, listeners);
+				listeners = new RequestRouter(policy, mailbox, inFlightMessages);
 			}
-			listeners.add(m);
-			log(m.getName() + " subscribed for " + type.getName());
+			listeners.add(mailbox);
+			return listeners;
+		});
+		
+		if (router.getPolicy() != policy) {
+			log(Log.Level.WARN, () -> m.getName() + " asked for " + policy + " routing of " + type.getName() + 
+					", but it is already routed with " + router.getPolicy());
 		}
+		log(Log.Level.DEBUG, () -> m.getName() + " subscribed for " + type.getName());
 	}
 
 	@Override
 	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
-		synchronized (broadcastListeners) {
-			Set<MicroService> listeners = broadcastListeners.get(type);
-			if (listeners == null) {
-				listeners = new HashSet<>();
-				broadcastListeners.put(type, listeners);
-			}
-			listeners.add(m);
-			log(m.getName() + " subscribed for " + type);
+		Mailbox mailbox = getMailbox(m);
+		broadcastListeners.compute(type, (t, listeners) -> withListener(t, listeners, mailbox));
+		log(Log.Level.DEBUG, () -> m.getName() + " subscribed for " + type);
+	}
+	
+	@Override
+	public void subscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m) {
+		Mailbox mailbox = getMailbox(m);
+		keyedBroadcastListeners.compute(new BroadcastKey(type, key), 
+				(k, listeners) -> withListener(listeners, mailbox));
+		log(Log.Level.DEBUG, () -> m.getName() + " subscribed for " + type + " with key " + key);
+	}
+	
+	@Override
+	public void unsubscribeBroadcast(Class<? extends KeyedBroadcast> type, Object key, MicroService m) {
+		Mailbox mailbox = messageQueues.get(m);
+		if (mailbox != null) {
+			keyedBroadcastListeners.computeIfPresent(new BroadcastKey(type, key), 
+					(k, listeners) -> withoutListener(listeners, mailbox));
 		}
 	}
 
 	@Override
 	public <T> void complete(Request<T> r, T result) {
-		MicroService requester = null;
-		synchronized (awaitingRequests) {
-			requester = awaitingRequests.remove(r);
-			sendMessage(requester, new RequestCompleted<T>(r, result));
+		Requester requester = awaitingRequests.remove(r);
+		if (requester != null && requester.deadline != null) {
+			requester.deadline.cancel();
+		}
+		if (requester != null && requester.mailbox != null) {
+			requester.mailbox.add(new RequestCompleted<T>(r, result, requester.correlationId));
 		}
 	}
 
 	@Override
 	public void sendBroadcast(Broadcast b) {
-		synchronized (broadcastListeners) {
-			Set<MicroService> listeners = broadcastListeners.get(b.getClass());
-			if (listeners != null) {
-				for (MicroService m : listeners) {
-					sendMessage(m, b);
-				}
+		BroadcastListeners listeners = broadcastListeners.getOrDefault(b.getClass(), NO_LISTENERS);
+		for (Mailbox m : listeners.mailboxes) {
+			m.add(b);
+		}
+		
+		if (b instanceof KeyedBroadcast) {
+			sendToKey((KeyedBroadcast) b, ((KeyedBroadcast) b).getKey(), listeners);
+		}
+	}
+	
+	@Override
+	public void sendBroadcast(KeyedBroadcast b, Object key) {
+		sendToKey(b, key, broadcastListeners.getOrDefault(b.getClass(), NO_LISTENERS));
+	}
+	
+	/** 
+	 * Adds b to the queues of the subscribers of the given key, except for the ones in 
+	 * allKeysListeners
+	 */
+	private void sendToKey(KeyedBroadcast b, Object key, BroadcastListeners allKeysListeners) {
+		for (Mailbox m : keyedBroadcastListeners.getOrDefault(new BroadcastKey(b.getClass(), key), NO_MAILBOXES)) {
+			// Services subscribed to all of the keys get it from sendBroadcast
+			if (allKeysListeners.mailboxSet == null || !allKeysListeners.mailboxSet.contains(m)) {
+				m.add(b);
 			}
 		}
 	}
 
 	@Override
 	public boolean sendRequest(Request<?> r, MicroService requester) {
-		MicroService handler = null;
-		synchronized (requestListeners) {
-			RoundRobinList<MicroService> listeners = requestListeners.get(r.getClass());
-			if (listeners == null) {
-				return false;
-			} else {
-				handler = listeners.getNext();
-			} 
+		return sendRequest(r, requester, RequestCompleted.NO_CORRELATION_ID);
+	}
+
+	@Override
+	public boolean sendRequest(Request<?> r, MicroService requester, long correlationId) {
+		return sendRequest(r, new Requester(messageQueues.get(requester), correlationId));
+	}
+
+	@Override
+	public boolean sendRequest(Request<?> r, MicroService requester, long correlationId, 
+			long timeout, TimeUnit unit) {
+		Requester awaiting = new Requester(messageQueues.get(requester), correlationId);
+		if (!sendRequest(r, awaiting)) {
+			return false;
 		}
 		
-		synchronized (awaitingRequests) {
-			awaitingRequests.put(r, requester);
+		// If the request was already completed, this is a no-op
+		awaiting.deadline = deadlineTimer.schedule(() -> expire(r, awaiting), timeout, unit);
+		if (!awaitingRequests.containsKey(r)) {
+			awaiting.deadline.cancel();
 		}
-		sendMessage(handler, r);
 		return true;
 	}
+	
+	private boolean sendRequest(Request<?> r, Requester requester) {
+		RequestRouter listeners = requestListeners.get(r.getClass());
+		if (listeners == null) {
+			return false;
+		}
+		
+		// The request must be awaiting before it is sent, in case the handler completes it
+		// right away.
+		awaitingRequests.put(r, requester);
+		if (!listeners.send(r)) {
+			// The last handler has just unregistered, or its queue is full
+			awaitingRequests.remove(r);
+			return false;
+		}
+		return true;
+	}
+	
+	/** Called by the deadline timer when the request wasn't completed in time */
+	private <T> void expire(Request<T> r, Requester requester) {
+		// Only if the request is still awaiting this requester - it may have been completed 
+		// and sent again since.
+		if (awaitingRequests.remove(r, requester) && requester.mailbox != null) {
+			log(Log.Level.WARN, () -> "Request timed out: " + r);
+			requester.mailbox.add(new RequestCompleted<T>(r, null, requester.correlationId, true));
+		}
+	}
 
 	@Override
 	public void register(MicroService m) {
-		synchronized(messageQueues) {
-			messageQueues.put(m, new LinkedBlockingQueue<Message>());
-			log(m.getName() + " registered");
-		}
+		register(m, MailboxConfig.DEFAULT);
+	}
+
+	@Override
+	public void register(MicroService m, MailboxConfig config) {
+		messageQueues.put(m, new Mailbox(m, config, inFlightMessages));
+		log(Log.Level.DEBUG, () -> m.getName() + " registered");
 	}
 
 	@Override
 	public void unregister(MicroService m) {
-		log(m.getName() + " unregistering...");
+		log(Log.Level.DEBUG, () -> m.getName() + " unregistering...");
 		
-		synchronized(messageQueues) {
-			messageQueues.remove(m);
+		Mailbox mailbox = messageQueues.remove(m);
+		if (mailbox == null) {
+			return;
 		}
 		
-		synchronized (requestListeners) {
-			Iterator<RoundRobinList<MicroService>> iterator = requestListeners.values().iterator();
-			while (iterator.hasNext()) {
-				RoundRobinList<MicroService> list = iterator.next();
-				list.remove(m);
-				if (list.isEmpty()) {
-					iterator.remove();
-				}
-			}
+		MailboxStatistics statistics = mailbox.getStatistics();
+		if (statistics.getRejected() > 0 || statistics.getDropped() > 0) {
+			log(Log.Level.WARN, () -> m.getName() + " mailbox overflowed: " + statistics);
 		}
+		retiredRejected.add(statistics.getRejected());
+		retiredDropped.add(statistics.getDropped());
 		
-		synchronized (broadcastListeners) {
-			Iterator<Set<MicroService>> iterator = broadcastListeners.values().iterator();
-			while (iterator.hasNext()) {
-				Set<MicroService> set = iterator.next();
-				set.remove(m);
-				if (set.isEmpty()) {
-					iterator.remove();
+		for (Class<? extends Request> type : requestListeners.keySet()) {
+			requestListeners.computeIfPresent(type, (t, listeners) -> {
+				listeners.remove(mailbox);
+				if (!listeners.isEmpty()) {
+					return listeners;
 				}
-			}
+				retiredRejected.add(listeners.getRejected());
+				retiredDropped.add(listeners.getDropped());
+				listeners.retire();
+				return null;
+			});
+		}
+		
+		for (Class<? extends Broadcast> type : broadcastListeners.keySet()) {
+			broadcastListeners.computeIfPresent(type, (t, listeners) -> withoutListener(t, listeners, mailbox));
 		}
 		
-		log(m.getName() + " unregistered");
+		for (BroadcastKey key : keyedBroadcastListeners.keySet()) {
+			keyedBroadcastListeners.computeIfPresent(key, (k, listeners) -> withoutListener(listeners, mailbox));
+		}
+		
+		// After it's removed from all of the subscriber lists, so no new messages are expected
+		mailbox.retire();
+		
+		log(Log.Level.DEBUG, () -> m.getName() + " unregistered");
 	}
 
 	@Override
 	public Message awaitMessage(MicroService m) throws InterruptedException {
-		// We don't synchronize here - the only way the queue can be removed
-		// is by calling unregister, but that means the same service called 
-		// unregister() and awaitMessage() at the same time, which is impossible.
-		BlockingQueue<Message> messages = messageQueues.get(m);
-		if (messages == null) {
-			throw new IllegalStateException();
+		// The only way the queue can be removed is by calling unregister, but that means 
+		// the same service called unregister() and awaitMessage() at the same time, 
+		// which is impossible.
+		return getMailbox(m).take();
+	}
+	
+	@Override
+	public int awaitMessages(MicroService m, Collection<? super Message> batch, int maxMessages) 
+			throws InterruptedException {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("maxMessages must be positive: " + maxMessages);
 		}
-		
-		return messages.take();
+		return getMailbox(m).take(batch, maxMessages);
+	}
+	
+	@Override
+	public int pollMessages(MicroService m, Collection<? super Message> batch, int maxMessages) {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("maxMessages must be positive: " + maxMessages);
+		}
+		return getMailbox(m).poll(batch, maxMessages);
+	}
+	
+	@Override
+	public void setMessageListener(MicroService m, Runnable listener) {
+		getMailbox(m).setMessageListener(listener);
+	}
+	
+	/** @return A copy of the listeners snapshot with the given mailbox added to it */
+	private static Mailbox[] withListener(Mailbox[] listeners, Mailbox mailbox) {
+		if (listeners == null) {
+			return new Mailbox[] { mailbox };
+		}
+		if (contains(listeners, mailbox)) {
+			return listeners;
+		}
+		Mailbox[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = mailbox;
+		return newListeners;
+	}
+	
+	/** @return A copy of the broadcast listeners snapshot with the given mailbox added to it */
+	private static BroadcastListeners withListener(Class<?> type, BroadcastListeners listeners, 
+			Mailbox mailbox) {
+		Mailbox[] mailboxes = withListener(listeners == null ? null : listeners.mailboxes, mailbox);
+		if (listeners != null && mailboxes == listeners.mailboxes) {
+			return listeners;
+		}
+		return new BroadcastListeners(type, mailboxes);
 	}
 	
 	/** 
-	 * A helper function that appends the given message to the given MicroService
+	 * @return A copy of the broadcast listeners snapshot without the given mailbox, or null 
+	 *         if no listeners are left
 	 */
-	private void sendMessage(MicroService service, Message m) {
-		Queue<Message> q = messageQueues.get(service);
-		
-		// If the queue has just been unregistered - the message is lost
-		if (q != null) {
-			// Note that BlockingQueue is thread-safe
-			q.add(m);
+	private static BroadcastListeners withoutListener(Class<?> type, BroadcastListeners listeners, 
+			Mailbox mailbox) {
+		Mailbox[] mailboxes = withoutListener(listeners.mailboxes, mailbox);
+		if (mailboxes == null) {
+			return null;
+		}
+		return mailboxes == listeners.mailboxes ? listeners : new BroadcastListeners(type, mailboxes);
+	}
+	
+	/** 
+	 * @return A copy of the listeners snapshot without the given mailbox, or null if no 
+	 *         listeners are left
+	 */
+	private static Mailbox[] withoutListener(Mailbox[] listeners, Mailbox mailbox) {
+		Mailbox[] newListeners = new Mailbox[listeners.length];
+		int count = 0;
+		for (Mailbox listener : listeners) {
+			if (listener != mailbox) {
+				newListeners[count++] = listener;
+			}
+		}
+		if (count == listeners.length) {
+			return listeners;
+		}
+		return count == 0 ? null : Arrays.copyOf(newListeners, count);
+	}
+	
+	private static boolean contains(Mailbox[] listeners, Mailbox mailbox) {
+		for (Mailbox listener : listeners) {
+			if (listener == mailbox) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/** 
+	 * @return A snapshot of the counters of the given service's mailbox, or null if it
+	 *         isn't registered
+	 */
+	public MailboxStatistics getMailboxStatistics(MicroService m) {
+		Mailbox mailbox = messageQueues.get(m);
+		return mailbox == null ? null : mailbox.getStatistics();
+	}
+	
+	/**
+	 * Starts counting the messages that were sent but not handled yet, which is required by
+	 * awaitQuiescence(). Should be called before the services start. Counting costs some 
+	 * throughput, since all of the senders and receivers share a single counter.
+	 * @throws IllegalStateException If a message is already queued or being handled, since it 
+	 *         would be finished without having been counted
+	 */
+	public void enableQuiescenceTracking() {
+		for (Mailbox mailbox : messageQueues.values()) {
+			if (!mailbox.isIdle()) {
+				throw new IllegalStateException("Can't enable quiescence tracking while " 
+						+ mailbox.getOwner().getName() + " has messages");
+			}
+		}
+		for (Map.Entry<Class<? extends Request>, RequestRouter> entry : requestListeners.entrySet()) {
+			if (!entry.getValue().isIdle()) {
+				throw new IllegalStateException("Can't enable quiescence tracking while requests of type " 
+						+ entry.getKey().getName() + " are queued");
+			}
+		}
+		inFlightMessages.enable();
+	}
+	
+	/** 
+	 * Stops counting the messages, and releases anyone waiting in awaitQuiescence(). Lets 
+	 * tracking be enabled again later, from scratch.
+	 */
+	public void disableQuiescenceTracking() {
+		inFlightMessages.disable();
+	}
+	
+	/** 
+	 * Waits until every message sent since enableQuiescenceTracking() has been handled, so
+	 * all of the services are waiting for messages. Requests that a service keeps 
+	 * without completing them are not waited for.
+	 * @throws IllegalStateException If quiescence tracking isn't enabled
+	 */
+	public void awaitQuiescence() throws InterruptedException {
+		inFlightMessages.awaitQuiescence();
+	}
+	
+	/** @return true if enableQuiescenceTracking() was called */
+	public boolean isQuiescenceTrackingEnabled() {
+		return inFlightMessages.isEnabled();
+	}
+	
+	/** 
+	 * @return The amount of messages rejected by full mailboxes and work groups since the bus 
+	 *         was created, including the ones that were already unregistered
+	 */
+	public long getTotalRejected() {
+		long total = retiredRejected.sum();
+		for (Mailbox mailbox : messageQueues.values()) {
+			total += mailbox.getStatistics().getRejected();
+		}
+		for (RequestRouter router : requestListeners.values()) {
+			total += router.getRejected();
+		}
+		return total;
+	}
+	
+	/** 
+	 * @return The amount of messages dropped from full mailboxes and work groups since the bus 
+	 *         was created, including the ones that were already unregistered
+	 */
+	public long getTotalDropped() {
+		long total = retiredDropped.sum();
+		for (Mailbox mailbox : messageQueues.values()) {
+			total += mailbox.getStatistics().getDropped();
+		}
+		for (RequestRouter router : requestListeners.values()) {
+			total += router.getDropped();
+		}
+		return total;
+	}
+	
+	/** 
+	 * @return The mailbox of the given service
+	 * @throws IllegalStateException if the service isn't registered 
+	 */
+	private Mailbox getMailbox(MicroService m) {
+		Mailbox mailbox = messageQueues.get(m);
+		if (mailbox == null) {
+			throw new IllegalStateException(m.getName() + " is not registered");
 		}
+		return mailbox;
 	}
 	
-	private void log(final String msg) {
-    	System.out.println("MessageBus: " + msg);
+	private void log(Log.Level level, Supplier<String> msg) {
+		Log.log(level, "MessageBus", msg);
 	}
 }
@@ -0,0 +1,36 @@
+package bgu.spl.mics.impl;
+
+import java.util.Collection;
+
+import bgu.spl.mics.Message;
+
+/**
+ * The queue behind a {@link Mailbox}. Many threads add messages to it, but only a single 
+ * thread (the owner service) removes them.
+ */
+interface MessageQueue {
+	/** 
+	 * Adds the message if there is room for it
+	 * @return false if the queue is full
+	 */
+	boolean offer(Message m);
+	
+	/** Adds the message, waiting for room if the queue is full */
+	void put(Message m);
+	
+	/** @return The next message, or null if the queue is empty */
+	Message poll();
+	
+	/** 
+	 * Removes up to {@code maxMessages} messages from the queue and adds them to {@code c}, 
+	 * without waiting.
+	 * @return The amount of messages added
+	 */
+	int drainTo(Collection<? super Message> c, int maxMessages);
+	
+	/** @return The next message, waiting for one if the queue is empty */
+	Message take() throws InterruptedException;
+	
+	/** @return The amount of messages in the queue */
+	int size();
+}
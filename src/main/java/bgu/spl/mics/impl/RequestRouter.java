@@ -0,0 +1,172 @@
+package bgu.spl.mics.impl;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import bgu.spl.app.RoundRobinList;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.RoutingPolicy;
+
+/**
+ * Holds the subscribers of a single Request type, and chooses the one that should receive
+ * the next request according to a {@link RoutingPolicy}.
+ * Like {@link RoundRobinList}, choosing is lock-free and only subscribing is synchronized.
+ */
+class RequestRouter {
+	private final RoutingPolicy policy;
+	private final RoundRobinList<Mailbox> handlers;
+	
+	/** The queue shared by the handlers, used only by the WORK_GROUP policy */
+	private final WorkGroup workGroup;
+	
+	/** 
+	 * @param firstHandler The first subscriber. Its capacity and overflow policy bound the 
+	 *                     shared queue of the WORK_GROUP policy.
+	 */
+	RequestRouter(RoutingPolicy policy, Mailbox firstHandler, InFlightMessages inFlightMessages) {
+		this.policy = policy;
+		this.handlers = new RoundRobinList<>();
+		this.workGroup = policy == RoutingPolicy.WORK_GROUP ? 
+				new WorkGroup(firstHandler.getCapacity(), firstHandler.getOverflowPolicy(), inFlightMessages) : null;
+	}
+	
+	RoutingPolicy getPolicy() {
+		return policy;
+	}
+	
+	void add(Mailbox handler) {
+		handlers.add(handler);
+		if (workGroup != null) {
+			workGroup.join(handler);
+		}
+	}
+	
+	void remove(Mailbox handler) {
+		handlers.remove(handler);
+		if (workGroup != null) {
+			workGroup.leave(handler);
+		}
+	}
+	
+	boolean isEmpty() {
+		return handlers.isEmpty();
+	}
+	
+	/** 
+	 * Called once the last subscriber has left. Completes the requests left in the shared 
+	 * queue of the work group, if any, with null.
+	 */
+	void retire() {
+		if (workGroup != null) {
+			workGroup.retire();
+		}
+	}
+	
+	/** @return The amount of requests refused by the shared queue of the work group */
+	long getRejected() {
+		return workGroup == null ? 0 : workGroup.getRejected();
+	}
+	
+	/** @return The amount of requests dropped from the shared queue of the work group */
+	long getDropped() {
+		return workGroup == null ? 0 : workGroup.getDropped();
+	}
+	
+	/** @return true if no request is waiting in the shared queue of the work group, if any */
+	boolean isIdle() {
+		return workGroup == null || workGroup.isEmpty();
+	}
+	
+	/** 
+	 * Sends the request to one of the subscribers
+	 * @return false if there are no subscribers, or the chosen one rejected the request
+	 */
+	boolean send(Message request) {
+		if (workGroup != null) {
+			if (handlers.isEmpty()) {
+				return false;
+			}
+			return workGroup.add(request);
+		}
+		
+		Mailbox handler = route();
+		return handler != null && handler.add(request);
+	}
+	
+	/** 
+	 * @return The mailbox the next request should be sent to, or null if there are no 
+	 *         subscribers
+	 */
+	private Mailbox route() {
+		switch (policy) {
+		case SHORTEST_QUEUE:
+			return getShortestQueue(handlers.items());
+		case POWER_OF_TWO_CHOICES:
+			return getShorterOfTwo(handlers.items());
+		case LEAST_LATENCY:
+			return getLeastLatency(handlers.items());
+		case ROUND_ROBIN:
+		default:
+			return handlers.getNext();
+		}
+	}
+	
+	private static Mailbox getShortestQueue(List<Mailbox> candidates) {
+		int count = candidates.size();
+		if (count == 0) {
+			return null;
+		}
+		
+		// Start at a random place so ties don't always go to the first subscriber
+		int start = ThreadLocalRandom.current().nextInt(count);
+		Mailbox best = null;
+		int bestSize = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			Mailbox m = candidates.get((start + i) % count);
+			int size = m.size();
+			if (size < bestSize) {
+				best = m;
+				bestSize = size;
+				if (size == 0) {
+					break;
+				}
+			}
+		}
+		return best;
+	}
+	
+	private static Mailbox getShorterOfTwo(List<Mailbox> candidates) {
+		int count = candidates.size();
+		if (count <= 1) {
+			return count == 0 ? null : candidates.get(0);
+		}
+		
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(count);
+		// Choose a second index that is different from the first one
+		int second = (first + 1 + random.nextInt(count - 1)) % count;
+		Mailbox m1 = candidates.get(first);
+		Mailbox m2 = candidates.get(second);
+		return m1.size() <= m2.size() ? m1 : m2;
+	}
+	
+	private static Mailbox getLeastLatency(List<Mailbox> candidates) {
+		int count = candidates.size();
+		if (count == 0) {
+			return null;
+		}
+		
+		int start = ThreadLocalRandom.current().nextInt(count);
+		Mailbox best = null;
+		double bestLatency = Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			Mailbox m = candidates.get((start + i) % count);
+			double latency = m.getExpectedLatency();
+			if (latency < bestLatency) {
+				best = m;
+				bestLatency = latency;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,150 @@
+package bgu.spl.mics.impl;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.Message;
+
+/**
+ * A bounded, lock-free {@link MessageQueue} for many senders and a single receiver, backed by
+ * an array ring buffer.
+ * <p>
+ * Senders claim a slot by advancing the producer index with a CAS, and then store the 
+ * message in it. The receiver is the only one that advances the consumer index, so it needs
+ * no CAS at all. While the queue is empty the receiver first spins, then yields, and only
+ * then parks until a sender unparks it.
+ */
+class RingBufferMessageQueue implements MessageQueue {
+	/** The amount of times the receiver polls the queue before it starts yielding */
+	private static final int SPIN_TRIES = 100;
+	
+	/** The amount of times the receiver yields before it parks */
+	private static final int YIELD_TRIES = 10;
+	
+	private final AtomicReferenceArray<Message> buffer;
+	private final int mask;
+	
+	/** The index of the next slot a sender will claim */
+	private final AtomicLong producerIndex;
+	
+	/** The index of the next slot the receiver will read. Written only by the receiver. */
+	private volatile long consumerIndex;
+	
+	/** The receiver thread while it's parked, or null */
+	private volatile Thread parkedReceiver;
+	
+	/**
+	 * @param capacity The minimal capacity of the queue. Rounded up to a power of 2.
+	 */
+	RingBufferMessageQueue(int capacity) {
+		int actualCapacity = Integer.highestOneBit(capacity);
+		if (actualCapacity < capacity) {
+			actualCapacity <<= 1;
+		}
+		this.buffer = new AtomicReferenceArray<>(actualCapacity);
+		this.mask = actualCapacity - 1;
+		this.producerIndex = new AtomicLong(0);
+		this.consumerIndex = 0;
+		this.parkedReceiver = null;
+	}
+
+	@Override
+	public boolean offer(Message m) {
+		long index;
+		do {
+			index = producerIndex.get();
+			if (index - consumerIndex > mask) {
+				return false;
+			}
+		} while (!producerIndex.compareAndSet(index, index + 1));
+		
+		// This must be a volatile write - it may not be reordered with the read of 
+		// parkedReceiver below, or we could miss a receiver that has just parked.
+		buffer.set((int) index & mask, m);
+		
+		Thread receiver = parkedReceiver;
+		if (receiver != null) {
+			LockSupport.unpark(receiver);
+		}
+		return true;
+	}
+
+	@Override
+	public void put(Message m) {
+		while (!offer(m)) {
+			Thread.yield();
+		}
+	}
+
+	@Override
+	public Message poll() {
+		long index = consumerIndex;
+		int slot = (int) index & mask;
+		Message m = buffer.get(slot);
+		if (m == null) {
+			if (index == producerIndex.get()) {
+				return null;
+			}
+			// A sender has claimed the slot but hasn't stored the message yet. It will
+			// very soon.
+			do {
+				m = buffer.get(slot);
+			} while (m == null);
+		}
+		
+		buffer.lazySet(slot, null);
+		consumerIndex = index + 1;
+		return m;
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> c, int maxMessages) {
+		int count = 0;
+		Message m;
+		while (count < maxMessages && (m = poll()) != null) {
+			c.add(m);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public Message take() throws InterruptedException {
+		for (int i = 0; i < SPIN_TRIES + YIELD_TRIES; i++) {
+			Message m = poll();
+			if (m != null) {
+				return m;
+			}
+			if (i >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		}
+		
+		Thread current = Thread.currentThread();
+		try {
+			while (true) {
+				// Publish ourselves before the last check, so a sender that stores a message 
+				// after that check is sure to see us and unpark us.
+				parkedReceiver = current;
+				Message m = poll();
+				if (m != null) {
+					return m;
+				}
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			parkedReceiver = null;
+		}
+	}
+
+	@Override
+	public int size() {
+		long size = producerIndex.get() - consumerIndex;
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+}
@@ -1,8 +1,14 @@
 package bgu.spl.mics.impl;
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -13,6 +19,7 @@ import java.util.concurrent.TimeUnit;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import bgu.spl.app.ReceiptJournal;
 import bgu.spl.app.ShoeStorageInfo;
 import bgu.spl.app.ShoeStorageInfo.ShoeStorageInfoDeserializer;
 import bgu.spl.app.Store;
@@ -23,6 +30,8 @@ import bgu.spl.app.services.TimeService;
 import bgu.spl.app.services.WebsiteClientService;
 import bgu.spl.app.services.WebsiteClientService.WebsiteClientServiceDeserializer;
 import bgu.spl.app.services.ManagementService.ManagementServiceDeserializer;
+import bgu.spl.mics.ActorScheduler;
+import bgu.spl.mics.Log;
 import bgu.spl.mics.MicroService;
 
 /**
@@ -31,6 +40,18 @@ import bgu.spl.mics.MicroService;
  *
  */
 public class ShoeStoreRunner {
+	/**
+	 * How the services are run. PLATFORM_THREADS runs each service on its own OS thread, 
+	 * VIRTUAL_THREADS runs each one on a virtual thread, which allows running tens of thousands 
+	 * of customers. VIRTUAL_THREADS requires running on JDK 21 or above.
+	 * ACTORS runs all of the services on an {@link ActorScheduler}, with a worker per core.
+	 */
+	public enum ExecutionMode {
+		PLATFORM_THREADS,
+		VIRTUAL_THREADS,
+		ACTORS
+	}
+	
 	/**
 	 * A class that holds all of the fields necessary for correct parsing of the json input file.
 	 */
@@ -45,6 +66,22 @@ public class ShoeStoreRunner {
 		
 		public ShoeStorageInfo[] initialStorage;
 		public ServicesInfo services;
+		
+		/** Optional. Defaults to PLATFORM_THREADS */
+		public ExecutionMode executionMode;
+		
+		/** Optional. Defaults to INFO */
+		public Log.Level logLevel;
+		
+		/** Optional. The file the log is written to, instead of the standard output */
+		public String logFile;
+		
+		/** 
+		 * Optional. A directory to file the receipts in, as a memory-mapped journal, instead of 
+		 * keeping them on the heap. The receipts already in it are kept, and new ones are 
+		 * appended after them, but only the receipts of this run are printed.
+		 */
+		public String receiptJournal;
 	}
 	
 	/** All of the services in the execution, except for the TimeService. */
@@ -65,11 +102,28 @@ public class ShoeStoreRunner {
 	 */
 	private Phaser servicesInitializedPhaser;
 	
+	private ExecutionMode executionMode;
+	
+	/** Null unless the receipts are filed in a journal */
+	private ReceiptJournal receiptJournal;
+	
 	/** Initializes the store and the services according to the given info */
 	public ShoeStoreRunner(ExecutionFileInfo info, Phaser servicesInitializedPhaser) {
 		this.services = new LinkedList<MicroService>();
 		this.timeService = info.services.time;
 		this.servicesInitializedPhaser = servicesInitializedPhaser;
+		this.executionMode = info.executionMode != null ? info.executionMode : ExecutionMode.PLATFORM_THREADS;
+		
+		if (info.logLevel != null) {
+			Log.setLevel(info.logLevel);
+		}
+		if (info.logFile != null) {
+			try {
+				Log.setOutput(new FileOutputStream(info.logFile));
+			} catch (FileNotFoundException e) {
+				throw new UncheckedIOException("Can't open the log file " + info.logFile, e);
+			}
+		}
 		
 		services.add(info.services.manager);
 		services.addAll(info.services.customers);
@@ -83,6 +137,24 @@ public class ShoeStoreRunner {
 		}
 		
 		Store.getInstance().load(info.initialStorage);
+		if (info.receiptJournal != null) {
+			try {
+				receiptJournal = new ReceiptJournal(Paths.get(info.receiptJournal));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can't open the receipt journal " + info.receiptJournal, e);
+			}
+			Store.getInstance().setReceiptJournal(receiptJournal);
+		}
+		
+		if (timeService.isVirtualTime()) {
+			// Must be enabled before any service starts sending messages
+			MessageBusImpl.getInstance().enableQuiescenceTracking();
+		}
+	}
+	
+	/** Overrides the execution mode given in the json input file */
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
 	}
 	
 	/**
@@ -90,9 +162,14 @@ public class ShoeStoreRunner {
 	 * will terminate gracefully after the duration stated in the json input file.
 	 */
 	public void run() {
+		if (executionMode == ExecutionMode.ACTORS) {
+			runActors();
+			return;
+		}
+		
 		servicesInitializedPhaser.register();
 		
-		ExecutorService executor = Executors.newFixedThreadPool(services.size() + 1);
+		ExecutorService executor = createExecutor();
 		for (MicroService m : services) {
 			// One of the services may be null if for example no manager was set.
 			if (m != null) {
@@ -112,18 +189,66 @@ public class ShoeStoreRunner {
 		}
 		executor.shutdownNow();
 		
-		System.out.println();
 		Store.getInstance().print();
+		closeReceiptJournal();
 	}
 
-	public static void main(String[] args) throws IOException {
-		if (args.length < 1) {
-			System.out.println("No input file found. Exiting..");
-			return;
+	private void runActors() {
+		servicesInitializedPhaser.register();
+		
+		ActorScheduler scheduler = new ActorScheduler();
+		for (MicroService m : services) {
+			if (m != null) {
+				scheduler.start(m);
+			}
 		}
-		final String jsonPath = args[0];
-		BufferedReader br = new BufferedReader(new FileReader(jsonPath));
 		
+		servicesInitializedPhaser.arriveAndAwaitAdvance();
+		
+		// The TimeService only waits for the TerminateBroadcast, its ticks come from its own timer
+		scheduler.start(timeService);
+		
+		try {
+			scheduler.awaitTermination();
+		} catch (InterruptedException e) {
+			assert false;
+		}
+		scheduler.shutdown();
+		
+		Store.getInstance().print();
+		closeReceiptJournal();
+	}
+	
+	private void closeReceiptJournal() {
+		if (receiptJournal == null) {
+			return;
+		}
+		try {
+			receiptJournal.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't close the receipt journal", e);
+		}
+	}
+	
+	private ExecutorService createExecutor() {
+		switch (executionMode) {
+		case VIRTUAL_THREADS:
+			// Looked up reflectively so that we still compile for Java 8 
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService)factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("VIRTUAL_THREADS execution mode requires JDK 21 or above", e);
+			}
+		case PLATFORM_THREADS:
+		case ACTORS:
+		default:
+			return Executors.newFixedThreadPool(services.size() + 1);
+		}
+	}
+	
+	/** Parses the given json input and initializes the store and the services accordingly */
+	public static ShoeStoreRunner load(Reader reader) {
 		Phaser servicesInitializedPhaser = new Phaser();
 		
 		GsonBuilder builder = new GsonBuilder();
@@ -134,9 +259,29 @@ public class ShoeStoreRunner {
 		builder.registerTypeAdapter(ShoeStorageInfo.class, new ShoeStorageInfoDeserializer());
 		
 		Gson gson = builder.create();
-		ExecutionFileInfo info = gson.fromJson(br, ExecutionFileInfo.class);
+		ExecutionFileInfo info = gson.fromJson(reader, ExecutionFileInfo.class);
+		
+		return new ShoeStoreRunner(info, servicesInitializedPhaser);
+	}
+
+	/** 
+	 * Usage: ShoeStoreRunner <json input file> [PLATFORM_THREADS|VIRTUAL_THREADS|ACTORS]
+	 * The execution mode given here overrides the one in the json input file.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("No input file found. Exiting..");
+			return;
+		}
+		final String jsonPath = args[0];
+		ShoeStoreRunner s;
+		try (BufferedReader br = new BufferedReader(new FileReader(jsonPath))) {
+			s = load(br);
+		}
 		
-		ShoeStoreRunner s = new ShoeStoreRunner(info, servicesInitializedPhaser);
+		if (args.length >= 2) {
+			s.setExecutionMode(ExecutionMode.valueOf(args[1].toUpperCase()));
+		}
 		s.run();
 	}
 }
@@ -0,0 +1,197 @@
+package bgu.spl.mics.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import bgu.spl.mics.MailboxConfig;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.Request;
+
+/**
+ * A queue shared by all of the subscribers of a Request type routed with 
+ * {@link bgu.spl.mics.RoutingPolicy#WORK_GROUP}. Every member takes requests from it when its 
+ * own mailbox is empty, so a slow member never holds back requests that an idle member
+ * could handle.
+ * <p>
+ * Members that are waiting for messages put themselves on an idle list, and every sent 
+ * request wakes up one of them.
+ * <p>
+ * The shared queue is bounded like a mailbox, by the capacity and the {@link OverflowPolicy} 
+ * of the first member. Once the last member has left, the requests still in it are completed 
+ * with null, so their requesters aren't left waiting.
+ */
+class WorkGroup {
+	/** The membership of a single mailbox in a work group */
+	static class Member {
+		final WorkGroup group;
+		final Mailbox mailbox;
+		
+		/** 
+		 * True while the member is in the idle list of the group. Makes sure the idle list 
+		 * never holds the same member twice, so its size is bounded by the member count.
+		 */
+		final AtomicBoolean isInIdleList;
+		
+		Member(WorkGroup group, Mailbox mailbox) {
+			this.group = group;
+			this.mailbox = mailbox;
+			this.isInIdleList = new AtomicBoolean(false);
+		}
+	}
+	
+	private final Queue<Message> pending;
+	private final Queue<Member> idleMembers;
+	private final InFlightMessages inFlightMessages;
+	
+	/** The room left in the shared queue, or null if it is unbounded */
+	private final Semaphore room;
+	private final OverflowPolicy overflowPolicy;
+	
+	/** The amount of new requests refused because the shared queue was full */
+	private final LongAdder rejected;
+	
+	/** The amount of queued requests dropped to make room for new ones */
+	private final LongAdder dropped;
+	
+	/** Set once the last member has left */
+	private volatile boolean isRetired;
+	
+	/**
+	 * @param capacity The maximal amount of requests in the shared queue
+	 * @param overflowPolicy What to do with requests sent while the shared queue is full
+	 */
+	WorkGroup(int capacity, OverflowPolicy overflowPolicy, InFlightMessages inFlightMessages) {
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.idleMembers = new ConcurrentLinkedQueue<>();
+		this.inFlightMessages = inFlightMessages;
+		this.room = capacity == MailboxConfig.UNBOUNDED ? null : new Semaphore(capacity);
+		this.overflowPolicy = overflowPolicy;
+		this.rejected = new LongAdder();
+		this.dropped = new LongAdder();
+		this.isRetired = false;
+	}
+	
+	/** @return true if no message is waiting in the shared queue */
+	boolean isEmpty() {
+		return pending.isEmpty();
+	}
+	
+	/** Adds the mailbox as a member. The mailbox will start taking messages from the group */
+	void join(Mailbox mailbox) {
+		mailbox.joinWorkGroup(new Member(this, mailbox));
+	}
+	
+	/** Removes the mailbox from the group's members */
+	void leave(Mailbox mailbox) {
+		mailbox.leaveWorkGroup(this);
+	}
+	
+	/** 
+	 * Called once the last member has left. Completes the requests left in the shared queue 
+	 * with null, and any request added from now on as soon as it is added.
+	 */
+	void retire() {
+		isRetired = true;
+		completeLeftovers();
+	}
+	
+	long getRejected() {
+		return rejected.sum();
+	}
+	
+	long getDropped() {
+		return dropped.sum();
+	}
+	
+	/** 
+	 * Adds the message to the shared queue, and wakes up an idle member to handle it. If the 
+	 * queue is full, handles the message according to the overflow policy.
+	 * @return false if the message was rejected
+	 */
+	boolean add(Message m) {
+		if (!reserveRoom()) {
+			rejected.increment();
+			return false;
+		}
+		inFlightMessages.added();
+		pending.add(m);
+		if (isRetired) {
+			// Sent while the last member was leaving
+			completeLeftovers();
+			return true;
+		}
+		
+		Member member;
+		while ((member = idleMembers.poll()) != null) {
+			member.isInIdleList.set(false);
+			// Members that got busy since they've been put on the list are skipped
+			if (member.mailbox.wakeUp()) {
+				return true;
+			}
+		}
+		return true;
+	}
+	
+	/** @return The next message in the shared queue, or null if it is empty */
+	Message poll() {
+		Message m = pending.poll();
+		if (m != null && room != null) {
+			room.release();
+		}
+		return m;
+	}
+	
+	/** @return false if there is no room for a new message, and the overflow policy rejects it */
+	private boolean reserveRoom() {
+		if (room == null) {
+			return true;
+		}
+		
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			while (!room.tryAcquire()) {
+				Message oldest = poll();
+				if (oldest != null) {
+					dropped.increment();
+					finishUnhandled(oldest);
+				}
+			}
+			return true;
+		case FAIL:
+		case DROP_NEWEST:
+			return room.tryAcquire();
+		case BLOCK:
+		default:
+			room.acquireUninterruptibly();
+			return true;
+		}
+	}
+	
+	private void completeLeftovers() {
+		Message m;
+		while ((m = poll()) != null) {
+			finishUnhandled(m);
+		}
+	}
+	
+	/** Gives up on a message that will never be handled */
+	@SuppressWarnings("unchecked")
+	private void finishUnhandled(Message m) {
+		inFlightMessages.finished(1);
+		if (m instanceof Request) {
+			// Don't leave the requester waiting for a request that will never be handled
+			MessageBusImpl.getInstance().complete((Request<Object>) m, null);
+		}
+	}
+	
+	/** Tells the group that the given member is about to wait for messages */
+	void markIdle(Member member) {
+		if (member.isInIdleList.compareAndSet(false, true)) {
+			idleMembers.add(member);
+		}
+	}
+}
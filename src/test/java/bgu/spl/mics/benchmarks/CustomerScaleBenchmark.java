@@ -0,0 +1,98 @@
+package bgu.spl.mics.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.impl.ShoeStoreRunner;
+import bgu.spl.mics.impl.ShoeStoreRunner.ExecutionMode;
+
+/**
+ * Finds the largest number of customers the ShoeStoreRunner can run in each execution mode.
+ * The number of customers is doubled until a run fails or times out. Each run is done in a
+ * new JVM, so that running out of threads or memory doesn't affect the following runs.
+ * Not a unit test - run it with:
+ * {@code java -cp target/classes:target/test-classes:<gson> bgu.spl.mics.benchmarks.CustomerScaleBenchmark [max customers] [-Xmx of each run]}
+ */
+public class CustomerScaleBenchmark {
+
+	private static final int FIRST_CUSTOMER_COUNT = 1000;
+	private static final int TICKS = 10;
+	private static final int TICK_MILLIS = 100;
+	private static final long RUN_TIMEOUT_SECONDS = 120;
+
+	private static final String[] SHOE_TYPES = { "red-boots", "green-flip-flops", "blue-sandals" };
+
+	public static void main(String[] args) throws Exception {
+		// A Phaser supports at most 65535 parties, which bounds the number of services
+		int maxCustomers = args.length > 0 ? Integer.parseInt(args[0]) : 64000;
+		String maxHeap = args.length > 1 ? args[1] : "1g";
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			int largest = 0;
+			for (int customers = FIRST_CUSTOMER_COUNT; customers <= maxCustomers; customers *= 2) {
+				long start = System.nanoTime();
+				boolean succeeded = run(mode, customers, maxHeap);
+				long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				System.out.println(mode + ": " + customers + " customers "
+						+ (succeeded ? "finished in " + millis + " ms" : "failed"));
+				if (!succeeded) {
+					break;
+				}
+				largest = customers;
+			}
+			System.out.println(mode + ": largest customer count: " + largest);
+		}
+	}
+
+	private static boolean run(ExecutionMode mode, int customers, String maxHeap)
+			throws IOException, InterruptedException {
+		File input = File.createTempFile("customers", ".json");
+		File log = new File(input.getPath() + ".log");
+		writeInput(input, customers);
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-Xmx" + maxHeap,
+				"-cp", System.getProperty("java.class.path"),
+				ShoeStoreRunner.class.getName(), input.getPath(), mode.name());
+		builder.redirectErrorStream(true);
+		// The output is only kept for the duration of the run, it's too big to be useful
+		builder.redirectOutput(Redirect.to(log));
+
+		Process process = builder.start();
+		try {
+			if (!process.waitFor(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				return false;
+			}
+			return process.exitValue() == 0;
+		} finally {
+			process.destroyForcibly();
+			input.delete();
+			log.delete();
+		}
+	}
+
+	/** Every customer buys a single shoe, at a tick that depends on its index */
+	private static void writeInput(File input, int customers) throws IOException {
+		try (PrintWriter out = new PrintWriter(input, "UTF-8")) {
+			out.println("{");
+			out.println(" \"initialStorage\": [{\"shoeType\":\"red-boots\",\"amount\":" + customers / 2 + "}],");
+			out.println(" \"services\": {");
+			out.println("  \"time\": {\"speed\": " + TICK_MILLIS + ", \"duration\": " + TICKS + "},");
+			out.println("  \"manager\": {\"discountSchedule\": []},");
+			out.println("  \"factories\": 4,");
+			out.println("  \"sellers\": 8,");
+			out.println("  \"customers\": [");
+			for (int i = 0; i < customers; i++) {
+				out.print("   {\"name\":\"customer " + i + "\",\"wishList\":[],\"purchaseSchedule\":[{\"shoeType\":\""
+						+ SHOE_TYPES[i % SHOE_TYPES.length] + "\",\"tick\":" + (i % TICKS + 1) + "}]}");
+				out.println(i < customers - 1 ? "," : "");
+			}
+			out.println("  ]");
+			out.println(" }");
+			out.println("}");
+		}
+	}
+}
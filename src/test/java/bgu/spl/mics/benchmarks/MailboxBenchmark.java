@@ -0,0 +1,97 @@
+package bgu.spl.mics.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MailboxConfig;
+import bgu.spl.mics.MailboxType;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+ * Compares the mailbox types: several senders broadcast to a single receiver that takes the
+ * messages as fast as it can. Prints the throughput, and the median and 99th percentile
+ * of the time between sending a message and taking it.
+ * Not a unit test - run it with: 
+ * {@code java -cp target/classes:target/test-classes:<gson> bgu.spl.mics.benchmarks.MailboxBenchmark [senders] [messages per sender]}
+ */
+public class MailboxBenchmark {
+	
+	private static class TimedBroadcast implements Broadcast {
+		private final long sentTime;
+		
+		TimedBroadcast() {
+			this.sentTime = System.nanoTime();
+		}
+	}
+	
+	private static class Receiver extends MicroService {
+		Receiver(String name) {
+			super(name);
+		}
+
+		@Override
+		protected void initialize() {
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int senders = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int messagesPerSender = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+		
+		// The first rounds only warm the JIT up
+		for (int round = 0; round < 3; round++) {
+			boolean print = round == 2;
+			run(new MailboxConfig(MailboxType.LINKED), senders, messagesPerSender, print);
+			run(new MailboxConfig(MailboxType.RING_BUFFER), senders, messagesPerSender, print);
+		}
+	}
+	
+	private static void run(MailboxConfig config, int senders, int messagesPerSender, boolean print) 
+			throws Exception {
+		MessageBus bus = MessageBusImpl.getInstance();
+		Receiver receiver = new Receiver("receiver");
+		bus.register(receiver, config);
+		bus.subscribeBroadcast(TimedBroadcast.class, receiver);
+		
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[senders];
+		for (int i = 0; i < senders; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int j = 0; j < messagesPerSender; j++) {
+					bus.sendBroadcast(new TimedBroadcast());
+				}
+			});
+			threads[i].start();
+		}
+		
+		int total = senders * messagesPerSender;
+		long[] latencies = new long[total];
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (int i = 0; i < total; i++) {
+			TimedBroadcast b = (TimedBroadcast) bus.awaitMessage(receiver);
+			latencies[i] = System.nanoTime() - b.sentTime;
+		}
+		long elapsed = System.nanoTime() - startTime;
+		
+		for (Thread t : threads) {
+			t.join();
+		}
+		bus.unregister(receiver);
+		
+		if (print) {
+			Arrays.sort(latencies);
+			System.out.printf("%-12s %d senders: %,12.0f msg/s, p50 %,8d ns, p99 %,10d ns%n",
+					config.getType(), senders, total / (elapsed / 1e9), 
+					latencies[total / 2], latencies[(int) (total * 0.99)]);
+		}
+	}
+}
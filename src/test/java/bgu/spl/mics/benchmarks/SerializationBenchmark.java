@@ -0,0 +1,80 @@
+package bgu.spl.mics.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.google.gson.Gson;
+
+import bgu.spl.app.LoggableObject;
+import bgu.spl.app.Receipt;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+
+/**
+ * Compares the ways of building the log line of a message: a new Gson per call (the old 
+ * LoggableObject.toString()), the cached toString(), and appendTo() into a reused StringBuilder.
+ * Prints the time and the bytes allocated per message.
+ * Not a unit test - run it with:
+ * {@code java -cp target/classes:target/test-classes:<gson> bgu.spl.mics.benchmarks.SerializationBenchmark [messages]}
+ */
+public class SerializationBenchmark {
+	
+	private interface Serialization {
+		/** @return Something that depends on the json, so the JIT can't drop it */
+		int serialize(LoggableObject o);
+	}
+	
+	/** Prevents the JIT from dropping the serialization */
+	private static int sink;
+	
+	public static void main(String[] args) {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		LoggableObject[] objects = {
+				new Receipt("seller 1", "customer 1", "red-boots", false, 3, 2, 1),
+				new PurchaseOrderRequest("red-boots", "customer 1", false, 2)
+		};
+		
+		StringBuilder sb = new StringBuilder();
+		Serialization newGson = (o) -> new Gson().toJson(o).length();
+		Serialization cachedToString = (o) -> o.toString().length();
+		Serialization appendTo = (o) -> {
+			sb.setLength(0);
+			o.appendTo(sb);
+			return sb.length();
+		};
+		
+		// The first rounds only warm the JIT up
+		for (int round = 0; round < 3; round++) {
+			boolean print = round == 2;
+			run("new Gson", newGson, objects, messages, print);
+			run("cached toString", cachedToString, objects, messages, print);
+			run("appendTo", appendTo, objects, messages, print);
+		}
+		System.out.println("(" + sink + ")");
+	}
+	
+	private static void run(String name, Serialization serialization, LoggableObject[] objects,
+			int messages, boolean print) {
+		long startBytes = allocatedBytes();
+		long startTime = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sink += serialization.serialize(objects[i % objects.length]);
+		}
+		long nanos = System.nanoTime() - startTime;
+		long bytes = allocatedBytes() - startBytes;
+		
+		if (print) {
+			System.out.println(name + ": " + nanos / messages + " ns/message, " 
+					+ (bytes < 0 ? "?" : Long.toString(bytes / messages)) + " bytes/message");
+		}
+	}
+	
+	/** @return The bytes allocated by this thread so far, or -1 if the JVM doesn't tell */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
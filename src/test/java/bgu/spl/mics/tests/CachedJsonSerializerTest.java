@@ -0,0 +1,36 @@
+package bgu.spl.mics.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import bgu.spl.app.Receipt;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.messages.RestockRequest;
+
+public class CachedJsonSerializerTest {
+	
+	/** toString() must keep returning what a new Gson would, with the same writer reused */
+	@Test
+	public void testSameAsGson() {
+		Gson gson = new Gson();
+		Receipt receipt = new Receipt("seller 1", "<customer & co>", "red-boots", true, 3, 2, 1);
+		PurchaseOrderRequest order = new PurchaseOrderRequest("red-boots", "customer", false, 2);
+		RestockRequest restock = new RestockRequest("red-boots", 2);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(gson.toJson(receipt), receipt.toString());
+			assertEquals(gson.toJson(order), order.toString());
+			assertEquals(gson.toJson(restock), restock.toString());
+		}
+	}
+	
+	@Test
+	public void testAppendTo() {
+		Receipt receipt = new Receipt("seller 1", "customer", "red-boots", false, 3, 2, 1);
+		StringBuilder sb = new StringBuilder("receipt: ");
+		receipt.appendTo(sb);
+		assertEquals("receipt: " + new Gson().toJson(receipt), sb.toString());
+	}
+}
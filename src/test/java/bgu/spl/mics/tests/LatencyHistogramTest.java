@@ -0,0 +1,37 @@
+package bgu.spl.mics.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import bgu.spl.app.LatencyHistogram;
+
+public class LatencyHistogramTest {
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(histogram.getCount(), 0);
+		assertEquals(histogram.getPercentile(99), 0);
+	}
+	
+	/** The percentiles must be within 12.5% above the exact ones */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value * 1000);
+		}
+		
+		assertEquals(histogram.getCount(), 1000);
+		assertEquals(histogram.getMax(), 1000000);
+		assertEquals(histogram.getMean(), 500500);
+		assertInRange(histogram.getPercentile(50), 500000);
+		assertInRange(histogram.getPercentile(99), 990000);
+		assertEquals(histogram.getPercentile(100), 1000000);
+	}
+	
+	private void assertInRange(long actual, long exact) {
+		assertTrue(actual + " < " + exact, actual >= exact);
+		assertTrue(actual + " > " + exact + " + 12.5%", actual <= exact + exact / 8);
+	}
+}
@@ -0,0 +1,75 @@
+package bgu.spl.mics.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import bgu.spl.mics.Log;
+import bgu.spl.mics.impl.AsyncLogWriter;
+
+public class LogTest {
+	
+	@After
+	public void tearDown() {
+		Log.setLevel(Log.Level.INFO);
+	}
+	
+	/** A disabled level must not build the message at all */
+	@Test
+	public void testDisabledLevel() {
+		Log.setLevel(Log.Level.WARN);
+		assertFalse(Log.isEnabled(Log.Level.INFO));
+		assertTrue(Log.isEnabled(Log.Level.ERROR));
+		Log.log(Log.Level.INFO, "test", () -> {
+			fail("The message of a disabled level was built");
+			return null;
+		});
+		
+		Log.setLevel(Log.Level.OFF);
+		assertFalse(Log.isEnabled(Log.Level.ERROR));
+	}
+	
+	/** 
+	 * The lines of every thread must be written in order, and none may be lost - even when the 
+	 * buffer is much smaller than the amount of lines
+	 */
+	@Test(timeout = 10000)
+	public void testAsyncLogWriter() throws InterruptedException {
+		final int threadCount = 4;
+		final int linesPerThread = 1000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		List<Thread> threads = new ArrayList<>();
+		try (AsyncLogWriter writer = new AsyncLogWriter(16, out)) {
+			for (int t = 0; t < threadCount; t++) {
+				final int thread = t;
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < linesPerThread; i++) {
+						writer.write(thread + " " + i);
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			writer.flush();
+		}
+		
+		List<String> lines = Arrays.asList(out.toString().split(System.lineSeparator()));
+		assertEquals(threadCount * linesPerThread, lines.size());
+		int[] next = new int[threadCount];
+		for (String line : lines) {
+			String[] parts = line.split(" ");
+			int thread = Integer.parseInt(parts[0]);
+			assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+		}
+	}
+}
@@ -2,6 +2,10 @@ package bgu.spl.mics.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -11,11 +15,19 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import bgu.spl.app.messages.TerminateBroadcast;
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.CoalescibleBroadcast;
+import bgu.spl.mics.ControlMessage;
+import bgu.spl.mics.KeyedBroadcast;
+import bgu.spl.mics.MailboxConfig;
+import bgu.spl.mics.MailboxType;
 import bgu.spl.mics.Message;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.OverflowPolicy;
 import bgu.spl.mics.Request;
 import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.RoutingPolicy;
 import bgu.spl.mics.impl.MessageBusImpl;
 
 @SuppressWarnings({ "rawtypes"})
@@ -34,6 +46,46 @@ public class MessageBusImplTest {
 	private class MockBroadcast implements Broadcast {
 	}
 	
+	private class MockKeyedBroadcast implements KeyedBroadcast {
+		private final String key;
+		
+		public MockKeyedBroadcast(String key) {
+			this.key = key;
+		}
+		
+		@Override
+		public Object getKey() {
+			return key;
+		}
+	}
+	
+	private class MockCoalescibleBroadcast implements CoalescibleBroadcast {
+	}
+	
+	private class MockControlBroadcast implements Broadcast, ControlMessage {
+	}
+	
+	private class MockRoutedRequest implements Request<Integer> {
+	}
+	
+	private class MockPowerOfTwoRequest implements Request<Integer> {
+	}
+	
+	private class MockLatencyRequest implements Request<Integer> {
+	}
+	
+	private class MockSharedRequest implements Request<Integer> {
+	}
+	
+	private class MockBoundedRequest implements Request<Integer> {
+	}
+	
+	private class MockTimedRequest implements Request<Integer> {
+	}
+	
+	private class MockBoundedSharedRequest implements Request<Integer> {
+	}
+	
 	private class MockMicroService extends MicroService {
 		
 		public MockMicroService(String name) {
@@ -72,6 +124,8 @@ public class MessageBusImplTest {
 	
 	@After
 	public void tearDown() {
+		// The bus is shared by all of the tests
+		messageBus.disableQuiescenceTracking();
 		messageBus.unregister(mockService);
 		messageBus.unregister(mockService2);
 		messageBus.unregister(mockService3);
@@ -110,6 +164,35 @@ public class MessageBusImplTest {
 		assertGotMessage(mockService2, br);
 	}
 	
+	/** 
+	 * Many services subscribing at once must all end up in the broadcast snapshot, and
+	 * unregistered services must be removed from it.
+	 */
+	@Test
+	public void testConcurrentSubscribeBroadcast() throws Exception {
+		final int SERVICES = 32;
+		MicroService[] services = new MicroService[SERVICES];
+		for (int i = 0; i < SERVICES; i++) {
+			services[i] = new MockMicroService("concurrent" + i);
+			messageBus.register(services[i]);
+		}
+		
+		ExecutorService exec = Executors.newFixedThreadPool(8);
+		for (MicroService service : services) {
+			exec.execute(() -> messageBus.subscribeBroadcast(MockBroadcast.class, service));
+		}
+		exec.shutdown();
+		assertTrue(exec.awaitTermination(1, TimeUnit.SECONDS));
+		
+		messageBus.unregister(services[0]);
+		MockBroadcast br = new MockBroadcast();
+		messageBus.sendBroadcast(br);
+		for (int i = 1; i < SERVICES; i++) {
+			assertGotMessage(services[i], br);
+			messageBus.unregister(services[i]);
+		}
+	}
+	
 	@Test
 	public void testComplete() throws Exception {
  		MockRequest<Integer> req = new MockRequest<>();
@@ -150,6 +233,392 @@ public class MessageBusImplTest {
 		assertGotMessage(mockService, req4);
 	}
 	
+	/** 
+	 * A, B and C are subscribed for a request, and B was the last to receive one. 
+	 * If B unregisters, the next handler should be C and not A.
+	 */
+	@Test
+	public void testRequestRoundRobinAfterUnregister() throws Exception {
+		MockRequest<Integer> req = new MockRequest<>();
+		MockRequest<Integer> req2 = new MockRequest<>();
+		MockRequest<Integer> req3 = new MockRequest<>();
+		
+		messageBus.subscribeRequest(MockRequest.class, mockService);
+		messageBus.subscribeRequest(MockRequest.class, mockService2);
+		messageBus.subscribeRequest(MockRequest.class, mockService3);
+		
+		messageBus.sendRequest(req, mockService);
+		assertGotMessage(mockService, req);
+		messageBus.sendRequest(req2, mockService);
+		assertGotMessage(mockService2, req2);
+		
+		messageBus.unregister(mockService2);
+		messageBus.sendRequest(req3, mockService);
+		assertGotMessage(mockService3, req3);
+	}
+	
+	/** A request routed by SHORTEST_QUEUE should skip a subscriber whose queue is backed up */
+	@Test
+	public void testShortestQueueRouting() throws Exception {
+		messageBus.subscribeRequest(MockRoutedRequest.class, mockService, RoutingPolicy.SHORTEST_QUEUE);
+		messageBus.subscribeRequest(MockRoutedRequest.class, mockService2, RoutingPolicy.SHORTEST_QUEUE);
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		
+		MockBroadcast br = new MockBroadcast();
+		messageBus.sendBroadcast(br);
+		
+		for (int i = 0; i < 3; i++) {
+			MockRoutedRequest req = new MockRoutedRequest();
+			messageBus.sendRequest(req, mockService3);
+			assertGotMessage(mockService2, req);
+		}
+		assertGotMessage(mockService, br);
+	}
+	
+	/** 
+	 * A request routed by POWER_OF_TWO_CHOICES should go to the shorter queue of the two it 
+	 * samples. With two subscribers, it always samples both.
+	 */
+	@Test
+	public void testPowerOfTwoChoicesRouting() throws Exception {
+		messageBus.subscribeRequest(MockPowerOfTwoRequest.class, mockService, RoutingPolicy.POWER_OF_TWO_CHOICES);
+		messageBus.subscribeRequest(MockPowerOfTwoRequest.class, mockService2, RoutingPolicy.POWER_OF_TWO_CHOICES);
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		
+		MockBroadcast br = new MockBroadcast();
+		messageBus.sendBroadcast(br);
+		
+		for (int i = 0; i < 3; i++) {
+			MockPowerOfTwoRequest req = new MockPowerOfTwoRequest();
+			messageBus.sendRequest(req, mockService3);
+			assertGotMessage(mockService2, req);
+		}
+		assertGotMessage(mockService, br);
+	}
+	
+	/** A request routed by LEAST_LATENCY should avoid a subscriber that handles its messages slowly */
+	@Test
+	public void testLeastLatencyRouting() throws Exception {
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		messageBus.sendBroadcast(new MockBroadcast());
+		// The handling time is measured from taking a message until coming back for more
+		assertEquals(1, pollAll(mockService).size());
+		Thread.sleep(MESSAGE_WAIT_TIMEOUT / 5);
+		assertEquals(0, pollAll(mockService).size());
+		
+		messageBus.subscribeRequest(MockLatencyRequest.class, mockService, RoutingPolicy.LEAST_LATENCY);
+		messageBus.subscribeRequest(MockLatencyRequest.class, mockService2, RoutingPolicy.LEAST_LATENCY);
+		for (int i = 0; i < 3; i++) {
+			MockLatencyRequest req = new MockLatencyRequest();
+			messageBus.sendRequest(req, mockService3);
+			assertGotMessage(mockService2, req);
+		}
+		assertEquals(0, pollAll(mockService).size());
+	}
+	
+	/** 
+	 * Requests routed by WORK_GROUP wait in a shared queue, and are taken by whichever 
+	 * subscriber asks for a message first - including one that is already waiting.
+	 */
+	@Test
+	public void testWorkGroupRouting() throws Exception {
+		messageBus.subscribeRequest(MockSharedRequest.class, mockService, RoutingPolicy.WORK_GROUP);
+		messageBus.subscribeRequest(MockSharedRequest.class, mockService2, RoutingPolicy.WORK_GROUP);
+		
+		MockSharedRequest req = new MockSharedRequest();
+		MockSharedRequest req2 = new MockSharedRequest();
+		messageBus.sendRequest(req, mockService3);
+		messageBus.sendRequest(req2, mockService3);
+		assertGotMessage(mockService2, req);
+		assertGotMessage(mockService2, req2);
+		
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		Future<Message> future = exec.submit(() -> messageBus.awaitMessage(mockService));
+		Thread.sleep(MESSAGE_WAIT_TIMEOUT / 2);
+		MockSharedRequest req3 = new MockSharedRequest();
+		messageBus.sendRequest(req3, mockService3);
+		assertEquals(future.get(MESSAGE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS), req3);
+	}
+	
+	/** 
+	 * A work group's shared queue is bounded like its first member's mailbox, and the requests 
+	 * left in it when the last member unregisters are completed with null.
+	 */
+	@Test
+	public void testBoundedWorkGroup() throws Exception {
+		MicroService service = new MockMicroService("workGroupMock");
+		messageBus.register(service, new MailboxConfig(MailboxType.LINKED, 1, OverflowPolicy.FAIL));
+		messageBus.subscribeRequest(MockBoundedSharedRequest.class, service, RoutingPolicy.WORK_GROUP);
+		
+		long rejected = messageBus.getTotalRejected();
+		MockBoundedSharedRequest req = new MockBoundedSharedRequest();
+		assertTrue(messageBus.sendRequest(req, mockService));
+		assertFalse(messageBus.sendRequest(new MockBoundedSharedRequest(), mockService));
+		assertEquals(rejected + 1, messageBus.getTotalRejected());
+		
+		messageBus.unregister(service);
+		List<Message> messages = pollAll(mockService);
+		assertEquals(1, messages.size());
+		RequestCompleted completed = (RequestCompleted) messages.get(0);
+		assertSame(req, completed.getCompletedRequest());
+		assertNull(completed.getResult());
+	}
+	
+	/** A ring buffer mailbox should keep the sending order, and wake up a waiting receiver */
+	@Test
+	public void testRingBufferMailbox() throws Exception {
+		MicroService service = new MockMicroService("ringBufferMock");
+		messageBus.register(service, new MailboxConfig(MailboxType.RING_BUFFER, 2));
+		messageBus.subscribeBroadcast(MockBroadcast.class, service);
+		
+		MockBroadcast br = new MockBroadcast();
+		MockBroadcast br2 = new MockBroadcast();
+		messageBus.sendBroadcast(br);
+		messageBus.sendBroadcast(br2);
+		assertGotMessage(service, br);
+		assertGotMessage(service, br2);
+		
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		Future<Message> future = exec.submit(() -> messageBus.awaitMessage(service));
+		Thread.sleep(MESSAGE_WAIT_TIMEOUT / 2);
+		MockBroadcast br3 = new MockBroadcast();
+		messageBus.sendBroadcast(br3);
+		assertEquals(future.get(MESSAGE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS), br3);
+		
+		messageBus.unregister(service);
+	}
+	
+	/** awaitMessages should take the waiting messages in order, up to the given amount */
+	@Test
+	public void testAwaitMessages() throws Exception {
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		MockBroadcast br = new MockBroadcast();
+		MockBroadcast br2 = new MockBroadcast();
+		MockBroadcast br3 = new MockBroadcast();
+		messageBus.sendBroadcast(br);
+		messageBus.sendBroadcast(br2);
+		messageBus.sendBroadcast(br3);
+		
+		List<Message> batch = new ArrayList<>();
+		assertEquals(messageBus.awaitMessages(mockService, batch, 2), 2);
+		assertEquals(batch, Arrays.asList(br, br2));
+		
+		batch.clear();
+		assertEquals(messageBus.awaitMessages(mockService, batch, 2), 1);
+		assertEquals(batch, Arrays.asList(br3));
+	}
+	
+	/** A full mailbox with the FAIL policy should make sendRequest fail, and count the rejection */
+	@Test
+	public void testBoundedMailboxFail() throws Exception {
+		MicroService service = new MockMicroService("failMock");
+		messageBus.register(service, new MailboxConfig(MailboxType.LINKED, 1, OverflowPolicy.FAIL));
+		messageBus.subscribeRequest(MockBoundedRequest.class, service);
+		
+		MockBoundedRequest req = new MockBoundedRequest();
+		assertTrue(messageBus.sendRequest(req, mockService));
+		assertFalse(messageBus.sendRequest(new MockBoundedRequest(), mockService));
+		assertEquals(messageBus.getMailboxStatistics(service).getRejected(), 1);
+		assertGotMessage(service, req);
+		
+		messageBus.unregister(service);
+	}
+	
+	/** A full mailbox with the DROP_OLDEST policy should make room for the newest message */
+	@Test
+	public void testBoundedMailboxDropOldest() throws Exception {
+		MicroService service = new MockMicroService("dropMock");
+		messageBus.register(service, new MailboxConfig(MailboxType.LINKED, 1, OverflowPolicy.DROP_OLDEST));
+		messageBus.subscribeBroadcast(MockBroadcast.class, service);
+		
+		MockBroadcast br = new MockBroadcast();
+		messageBus.sendBroadcast(new MockBroadcast());
+		messageBus.sendBroadcast(br);
+		assertEquals(messageBus.getMailboxStatistics(service).getDropped(), 1);
+		assertGotMessage(service, br);
+		
+		messageBus.unregister(service);
+	}
+	
+	/** A full mailbox with the DROP_OLDEST policy should still deliver a termination, and never drop it */
+	@Test
+	public void testBoundedMailboxDropOldestKeepsTerminate() throws Exception {
+		MicroService service = new MockMicroService("dropTerminateMock");
+		messageBus.register(service, new MailboxConfig(MailboxType.LINKED, 1, OverflowPolicy.DROP_OLDEST));
+		messageBus.subscribeBroadcast(MockBroadcast.class, service);
+		messageBus.subscribeBroadcast(TerminateBroadcast.class, service);
+		
+		TerminateBroadcast terminate = new TerminateBroadcast();
+		MockBroadcast br = new MockBroadcast();
+		messageBus.sendBroadcast(new MockBroadcast());
+		messageBus.sendBroadcast(terminate);
+		messageBus.sendBroadcast(br);
+		assertEquals(messageBus.getMailboxStatistics(service).getDropped(), 1);
+		assertEquals(Arrays.asList(terminate, br), pollAll(service));
+		
+		messageBus.unregister(service);
+	}
+	
+	/** A request that isn't completed before its deadline should complete as timed out */
+	@Test
+	public void testRequestDeadline() throws Exception {
+		MockTimedRequest req = new MockTimedRequest();
+		messageBus.subscribeRequest(MockTimedRequest.class, mockService2);
+		assertTrue(messageBus.sendRequest(req, mockService, 7, 10, TimeUnit.MILLISECONDS));
+		assertGotMessage(mockService2, req);
+		
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		Future<Message> future = exec.submit(() -> messageBus.awaitMessage(mockService));
+		RequestCompleted completed = (RequestCompleted) future.get(MESSAGE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+		assertTrue(completed.isTimedOut());
+		assertEquals(completed.getCorrelationId(), 7);
+		assertNull(completed.getResult());
+	}
+	
+	/** Tests that keyed broadcasts reach only the subscribers of their key, and the unkeyed ones */
+	@Test
+	public void testKeyedBroadcast() {
+		messageBus.subscribeBroadcast(MockKeyedBroadcast.class, "a", mockService);
+		messageBus.subscribeBroadcast(MockKeyedBroadcast.class, "b", mockService2);
+		messageBus.subscribeBroadcast(MockKeyedBroadcast.class, mockService3);
+		messageBus.subscribeBroadcast(MockKeyedBroadcast.class, "a", mockService3);
+		
+		MockKeyedBroadcast a = new MockKeyedBroadcast("a");
+		messageBus.sendBroadcast(a);
+		assertEquals(Collections.singletonList(a), pollAll(mockService));
+		assertEquals(Collections.emptyList(), pollAll(mockService2));
+		assertEquals(Collections.singletonList(a), pollAll(mockService3));
+		
+		messageBus.unsubscribeBroadcast(MockKeyedBroadcast.class, "a", mockService);
+		messageBus.sendBroadcast(new MockKeyedBroadcast("a"));
+		assertEquals(Collections.emptyList(), pollAll(mockService));
+	}
+	
+	/** Tests that awaitQuiescence waits until the sent messages were handled */
+	@Test
+	public void testQuiescence() throws Exception {
+		messageBus.enableQuiescenceTracking();
+		MicroService service = new MockMicroService("testQuiescenceMock");
+		messageBus.register(service);
+		messageBus.subscribeBroadcast(MockBroadcast.class, service);
+		messageBus.sendBroadcast(new MockBroadcast());
+		
+		ExecutorService exec = Executors.newSingleThreadExecutor();
+		Future<?> quiescence = exec.submit(() -> {
+			messageBus.awaitQuiescence();
+			return null;
+		});
+		
+		// Taking the message isn't enough - it's handled only when the service comes back for more
+		assertEquals(1, pollAll(service).size());
+		Thread.sleep(MESSAGE_WAIT_TIMEOUT);
+		assertFalse(quiescence.isDone());
+		
+		assertEquals(0, pollAll(service).size());
+		quiescence.get(MESSAGE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+		messageBus.unregister(service);
+	}
+	
+	/** 
+	 * Tests that quiescence tracking can't be enabled while a message is queued, since handling 
+	 * it would cancel out a message that was counted
+	 */
+	@Test
+	public void testQuiescenceRequiresIdleMailboxes() {
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		messageBus.sendBroadcast(new MockBroadcast());
+		try {
+			messageBus.enableQuiescenceTracking();
+			fail("Enabled quiescence tracking with a queued message");
+		} catch (IllegalStateException e) {
+			assertFalse(messageBus.isQuiescenceTrackingEnabled());
+		}
+		
+		// Once handled, the message can't be finished uncounted anymore
+		assertEquals(1, pollAll(mockService).size());
+		assertEquals(0, pollAll(mockService).size());
+		messageBus.enableQuiescenceTracking();
+		assertTrue(messageBus.isQuiescenceTrackingEnabled());
+	}
+	
+	/** Tests that a coalescible broadcast replaces the one still waiting in the mailbox, in its place */
+	@Test
+	public void testCoalescibleBroadcast() {
+		messageBus.subscribeBroadcast(MockCoalescibleBroadcast.class, mockService);
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		
+		MockBroadcast br = new MockBroadcast();
+		MockCoalescibleBroadcast latest = new MockCoalescibleBroadcast();
+		messageBus.sendBroadcast(new MockCoalescibleBroadcast());
+		messageBus.sendBroadcast(br);
+		messageBus.sendBroadcast(latest);
+		assertEquals(Arrays.asList(latest, br), pollAll(mockService));
+		assertEquals(1, messageBus.getMailboxStatistics(mockService).getCoalesced());
+		
+		// Once taken, the next one is queued again
+		MockCoalescibleBroadcast next = new MockCoalescibleBroadcast();
+		messageBus.sendBroadcast(next);
+		assertEquals(Collections.singletonList(next), pollAll(mockService));
+	}
+	
+	/** Tests that control messages are taken before the ordinary ones, and each lane keeps its order */
+	@Test
+	public void testControlLane() {
+		messageBus.subscribeBroadcast(MockBroadcast.class, mockService);
+		messageBus.subscribeBroadcast(MockControlBroadcast.class, mockService);
+		
+		MockBroadcast br1 = new MockBroadcast();
+		MockBroadcast br2 = new MockBroadcast();
+		MockControlBroadcast control1 = new MockControlBroadcast();
+		MockControlBroadcast control2 = new MockControlBroadcast();
+		messageBus.sendBroadcast(br1);
+		messageBus.sendBroadcast(control1);
+		messageBus.sendBroadcast(br2);
+		messageBus.sendBroadcast(control2);
+		assertEquals(Arrays.asList(control1, control2, br1, br2), pollAll(mockService));
+	}
+	
+	/** 
+	 * Batches taken while control messages arrive hold only the sent messages, never the 
+	 * wake-ups the control messages queue.
+	 */
+	@Test(timeout = 10000)
+	public void testBatchesWhileAddingControl() throws Exception {
+		for (int round = 0; round < 200; round++) {
+			MicroService service = new MockMicroService("batchMock");
+			messageBus.register(service);
+			messageBus.subscribeBroadcast(MockBroadcast.class, service);
+			messageBus.subscribeBroadcast(MockControlBroadcast.class, service);
+			
+			Thread sender = new Thread(() -> {
+				for (int i = 0; i < 5; i++) {
+					messageBus.sendBroadcast(new MockControlBroadcast());
+				}
+			});
+			sender.start();
+			List<Message> taken = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				messageBus.sendBroadcast(new MockBroadcast());
+				messageBus.sendBroadcast(new MockBroadcast());
+				messageBus.pollMessages(service, taken, 3);
+			}
+			sender.join();
+			taken.addAll(pollAll(service));
+			
+			for (Message m : taken) {
+				assertTrue(m instanceof MockBroadcast || m instanceof MockControlBroadcast);
+			}
+			assertEquals(45, taken.size());
+			messageBus.unregister(service);
+		}
+	}
+	
 	// Note: Adding tests for register, unregister and awaitMessage is not needed since our tests already 
 	//       use them and thus test that they work correctly.
+	
+	private List<Message> pollAll(MicroService service) {
+		List<Message> messages = new ArrayList<>();
+		messageBus.pollMessages(service, messages, Integer.MAX_VALUE);
+		return messages;
+	}
 }
@@ -2,11 +2,16 @@ package bgu.spl.mics.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import bgu.spl.app.messages.TerminateBroadcast;
+import bgu.spl.mics.ActorScheduler;
 import bgu.spl.mics.Broadcast;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.Request;
@@ -23,6 +28,49 @@ public class MicroServiceTest {
 	class MockRequest implements Request<Integer> {
 	}
 	
+	/** Asks the service to send a MockRequest (to itself) */
+	class MockSendRequestBroadcast implements Broadcast {
+	}
+	
+	/** Asks the service to send two MockRequests (to itself) with sendRequestsAsync */
+	class MockSendAsyncRequestsBroadcast implements Broadcast {
+	}
+	
+	class NumberBroadcast implements Broadcast {
+		public final int number;
+		
+		public NumberBroadcast(int number) {
+			this.number = number;
+		}
+	}
+	
+	/** Records the NumberBroadcasts it gets, until a negative number */
+	class NumberRecorderService extends MicroService {
+		public final List<Integer> numbers;
+		
+		public NumberRecorderService(String name) {
+			super(name);
+			numbers = new ArrayList<>();
+		}
+		
+		@Override
+		protected void initialize() {
+			// A TerminateBroadcast would be taken before the queued numbers, so a negative number
+			// marks the end instead
+			subscribeBroadcast(NumberBroadcast.class, (b) -> {
+				if (b.number < 0) {
+					terminate();
+				} else {
+					numbers.add(b.number);
+				}
+			});
+		}
+		
+		@Override
+		protected void log(String msg) {
+		}
+	}
+	
 	class MyMicroService extends MicroService {
 		public static final String SERVICE_NAME = "test"; 
 		public static final int REQUEST_RETURN_VALUE = 3;
@@ -31,6 +79,7 @@ public class MicroServiceTest {
 		public boolean isBroadcastReceived;
 		public boolean isRequestReceived;
 		public int requestResult;
+		public List<Integer> asyncRequestResults;
 		
 		public MyMicroService() {
 			super(SERVICE_NAME);
@@ -48,6 +97,10 @@ public class MicroServiceTest {
 				isRequestReceived = true;
 				complete(r, REQUEST_RETURN_VALUE);
 			});
+			subscribeBroadcast(MockSendRequestBroadcast.class, (b) -> mySendRequest(new MockRequest()));
+			subscribeBroadcast(MockSendAsyncRequestsBroadcast.class, (b) -> 
+				sendRequestsAsync(Arrays.asList(new MockRequest(), new MockRequest()))
+						.thenAccept((results) -> asyncRequestResults = results));
 		}
 		
 		public void mySendBroadcast(MockBroadcast b) {
@@ -112,5 +165,62 @@ public class MicroServiceTest {
 		assertTrue(service.isBroadcastReceived);
 	}
 	
-	// For now we haven't tested requests, but it isn't necessary according to the instructions
+	/** Tests sending several requests at once, and getting all of their results in a future */
+	@Test
+	public void testRequestsAsync() {
+		MessageBusImpl.getInstance().sendBroadcast(new MockSendAsyncRequestsBroadcast());
+		
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException ex) {
+			fail("Interrupted unexpectedly!");
+		}
+		
+		assertEquals(service.asyncRequestResults, 
+				Arrays.asList(MyMicroService.REQUEST_RETURN_VALUE, MyMicroService.REQUEST_RETURN_VALUE));
+	}
+	
+	/** Tests sending a request, handling it, and calling its onComplete callback */
+	@Test
+	public void testRequest() {
+		MessageBusImpl.getInstance().sendBroadcast(new MockSendRequestBroadcast());
+		
+		try {
+			Thread.sleep(100);
+		} catch (InterruptedException ex) {
+			fail("Interrupted unexpectedly!");
+		}
+		
+		assertTrue(service.isRequestReceived);
+		assertEquals(service.requestResult, MyMicroService.REQUEST_RETURN_VALUE);
+	}
+	
+	/** Tests that services on an ActorScheduler handle all of their messages, in order */
+	@Test(timeout = 5000)
+	public void testActorScheduler() throws InterruptedException {
+		final int numbers = 1000;
+		ActorScheduler scheduler = new ActorScheduler(2, 4);
+		List<NumberRecorderService> recorders = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			NumberRecorderService recorder = new NumberRecorderService("recorder " + i);
+			recorders.add(recorder);
+			scheduler.start(recorder);
+		}
+		
+		// Give the services some time to initialize
+		Thread.sleep(100);
+		
+		List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < numbers; i++) {
+			MessageBusImpl.getInstance().sendBroadcast(new NumberBroadcast(i));
+			expected.add(i);
+		}
+		MessageBusImpl.getInstance().sendBroadcast(new NumberBroadcast(-1));
+		
+		scheduler.awaitTermination();
+		scheduler.shutdown();
+		for (NumberRecorderService recorder : recorders) {
+			assertEquals(expected, recorder.numbers);
+		}
+	}
 }
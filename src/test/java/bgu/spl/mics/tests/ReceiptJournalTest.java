@@ -0,0 +1,172 @@
+package bgu.spl.mics.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bgu.spl.app.Receipt;
+import bgu.spl.app.ReceiptJournal;
+
+public class ReceiptJournalTest {
+	private static final int RECORDS_PER_SEGMENT = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Receipts appended concurrently are all read back, across several segments */
+	@Test(timeout = 10000)
+	public void testConcurrentAppend() throws IOException, InterruptedException {
+		final int threadCount = 4;
+		final int receiptsPerThread = 100;
+		try (ReceiptJournal journal = new ReceiptJournal(folder.getRoot().toPath(), RECORDS_PER_SEGMENT)) {
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < threadCount; t++) {
+				final int thread = t;
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < receiptsPerThread; i++) {
+						journal.append(new Receipt("seller " + thread, "customer " + i, "red-boots",
+								i % 2 == 0, i, thread, 1));
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			Set<String> read = new HashSet<>();
+			ReceiptJournal.Cursor cursor = journal.cursor();
+			while (cursor.next()) {
+				assertEquals("seller " + cursor.getRequestTick(), cursor.getSeller());
+				assertEquals("customer " + cursor.getIssuedTick(), cursor.getCustomer());
+				assertEquals(cursor.getIssuedTick() % 2 == 0, cursor.isDiscount());
+				assertEquals("red-boots", cursor.getShoeType());
+				read.add(cursor.getSeller() + "/" + cursor.getCustomer());
+			}
+			assertEquals(threadCount * receiptsPerThread, read.size());
+		}
+	}
+
+	/**
+	 * Reopening a journal recovers its receipts and appends after them. A record that was
+	 * cut short is skipped.
+	 */
+	@Test
+	public void testRecovery() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			for (int i = 0; i < RECORDS_PER_SEGMENT + 2; i++) {
+				journal.append(new Receipt("seller", "customer", "red-boots", false, i, i, 1));
+			}
+		}
+
+		// Clear the commit marker of the first record of the second segment, as if the
+		// process died while writing it
+		try (RandomAccessFile segment = new RandomAccessFile(
+				directory.resolve("receipts-000001.journal").toFile(), "rw")) {
+			segment.seek(28);
+			segment.writeInt(0);
+		}
+
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			assertEquals(RECORDS_PER_SEGMENT + 2, journal.getRecordCount());
+			journal.append(new Receipt("new seller", "new customer", "blue-sandals", true, 100, 99, 2));
+
+			List<Receipt> receipts = new ArrayList<>();
+			ReceiptJournal.Cursor cursor = journal.cursor();
+			while (cursor.next()) {
+				receipts.add(cursor.toReceipt());
+			}
+			assertEquals(RECORDS_PER_SEGMENT + 2, receipts.size());
+			assertEquals(RECORDS_PER_SEGMENT + 1, receipts.get(RECORDS_PER_SEGMENT).getIssuedTick());
+
+			Receipt last = receipts.get(receipts.size() - 1);
+			assertEquals("new seller", last.getSeller());
+			assertEquals("new customer", last.getCustomer());
+			assertEquals("blue-sandals", last.getShoeType());
+			assertTrue(last.isDiscount());
+			assertEquals(100, last.getIssuedTick());
+			assertEquals(99, last.getRequestTick());
+			assertEquals(2, last.getAmountSold());
+		}
+	}
+
+	/** 
+	 * The session cursor visits only the receipts appended since the journal was opened, by 
+	 * their issued tick, keeping the append order of the same tick
+	 */
+	@Test
+	public void testSessionCursorByIssuedTick() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			journal.append(new Receipt("old seller", "customer", "red-boots", false, 1, 1, 1));
+		}
+		
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			int[] ticks = { 3, 2, 3, 1, 2 };
+			for (int i = 0; i < ticks.length; i++) {
+				journal.append(new Receipt("seller " + i, "customer", "red-boots", false, ticks[i], 0, 1));
+			}
+			
+			List<String> sellers = new ArrayList<>();
+			ReceiptJournal.OrderedCursor cursor = journal.sessionCursorByIssuedTick();
+			assertEquals(ticks.length, cursor.size());
+			while (cursor.next()) {
+				sellers.add(cursor.getSeller());
+			}
+			assertEquals(Arrays.asList("seller 3", "seller 1", "seller 4", "seller 0", "seller 2"), sellers);
+		}
+	}
+	
+	/** A names file line that was cut short is truncated away, so new names start on a line of their own */
+	@Test
+	public void testTruncatedNames() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			journal.append(new Receipt("seller", "customer", "red-boots", false, 1, 1, 1));
+		}
+		Path names = directory.resolve("names");
+		Files.write(names, "Cpartial cust".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			journal.append(new Receipt("seller 2", "customer 2", "red-boots", false, 2, 2, 1));
+		}
+		assertFalse(new String(Files.readAllBytes(names), StandardCharsets.UTF_8).contains("partial"));
+		
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			ReceiptJournal.Cursor cursor = journal.cursor();
+			assertTrue(cursor.next());
+			assertEquals("customer", cursor.getCustomer());
+			assertTrue(cursor.next());
+			assertEquals("customer 2", cursor.getCustomer());
+			assertEquals("seller 2", cursor.getSeller());
+			assertFalse(cursor.next());
+		}
+	}
+	
+	/** A journal can't be reopened with a different segment size */
+	@Test(expected = IllegalStateException.class)
+	public void testSegmentSizeMismatch() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (ReceiptJournal journal = new ReceiptJournal(directory, RECORDS_PER_SEGMENT)) {
+			journal.append(new Receipt("seller", "customer", "red-boots", false, 1, 1, 1));
+		}
+		new ReceiptJournal(directory, RECORDS_PER_SEGMENT * 2);
+	}
+}
@@ -0,0 +1,65 @@
+package bgu.spl.mics.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+import bgu.spl.app.Receipt;
+import bgu.spl.app.ReceiptLedger;
+
+public class ReceiptLedgerTest {
+	
+	/** Receipts filed concurrently must all be iterated, in the order of their issued tick */
+	@Test(timeout = 10000)
+	public void testConcurrentFiling() throws InterruptedException {
+		final int threadCount = 4;
+		final int receiptsPerThread = 1000;
+		ReceiptLedger ledger = new ReceiptLedger();
+		
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			final int thread = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < receiptsPerThread; i++) {
+					// Nearly in tick order, like the sellers file them
+					int tick = i / 10 + (i % 3 == 0 ? thread : 0);
+					ledger.add(new Receipt("seller " + thread, "customer", "red-boots", false, tick, tick, 1));
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertEquals(threadCount * receiptsPerThread, ledger.size());
+		int count = 0;
+		int previousTick = Integer.MIN_VALUE;
+		for (Receipt receipt : ledger) {
+			assertTrue(receipt.getIssuedTick() >= previousTick);
+			previousTick = receipt.getIssuedTick();
+			count++;
+		}
+		assertEquals(threadCount * receiptsPerThread, count);
+	}
+	
+	/** The ledger is logged as a plain json array */
+	@Test
+	public void testJson() {
+		ReceiptLedger ledger = new ReceiptLedger();
+		Receipt later = new Receipt("seller", "customer", "red-boots", false, 2, 1, 1);
+		Receipt earlier = new Receipt("seller", "customer", "red-boots", true, 1, 1, 1);
+		ledger.add(later);
+		ledger.add(earlier);
+		
+		Gson gson = new Gson();
+		assertEquals("[" + gson.toJson(earlier) + "," + gson.toJson(later) + "]", gson.toJson(ledger));
+	}
+}
@@ -2,10 +2,17 @@ package bgu.spl.mics.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 import bgu.spl.app.Receipt;
 import bgu.spl.app.ShoeStorageInfo;
+import bgu.spl.app.ShoeTypeDictionary;
 import bgu.spl.app.Store;
 import bgu.spl.app.Store.BuyResult;
 
@@ -50,5 +57,70 @@ public class StoreTest {
 		Store.getInstance().file(r);
 		assertTrue(Store.getInstance().toString().contains(r.toString()));
 	}
-
+	
+	/** A shoe that ran out is treated as missing, until more of it is added */
+	@Test
+	public void discountOutOfStockTest() {
+		Store.getInstance().add("D", 1);
+		assertEquals(Store.getInstance().take("D", false), BuyResult.REGULAR_PRICE);
+		Store.getInstance().addDiscount("D", 1);
+		Store.getInstance().add("D", 1);
+		assertEquals(Store.getInstance().take("D", true), BuyResult.NOT_ON_DISCOUNT);
+	}
+	
+	@Test
+	public void shoeStorageInfoToStringTest() {
+		assertEquals("{\"shoeType\":\"A\",\"amountOnStorage\":3,\"discountedAmount\":2}", 
+				new ShoeStorageInfo("A", 3, 2).toString());
+	}
+	
+	/** Concurrent takes must sell every shoe exactly once, and every discount exactly once */
+	@Test(timeout = 10000)
+	public void concurrentTakeTest() throws InterruptedException {
+		final int amount = 10000;
+		final int discounted = 3000;
+		final int threadCount = 4;
+		Store.getInstance().add("C", amount);
+		Store.getInstance().addDiscount("C", discounted);
+		
+		ConcurrentMap<BuyResult, AtomicInteger> results = new ConcurrentHashMap<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < amount / threadCount + 100; i++) {
+					results.computeIfAbsent(Store.getInstance().take("C", false), r -> new AtomicInteger())
+							.incrementAndGet();
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertEquals(discounted, results.get(BuyResult.DISCOUNTED_PRICE).get());
+		assertEquals(amount - discounted, results.get(BuyResult.REGULAR_PRICE).get());
+		assertEquals(threadCount * 100, results.get(BuyResult.NOT_IN_STOCK).get());
+	}
+	
+	@Test
+	public void shoeTypeDictionaryTest() {
+		ShoeTypeDictionary dictionary = ShoeTypeDictionary.getInstance();
+		int id = dictionary.idOf("dictionary-boots");
+		assertEquals(id, dictionary.idOf(new String("dictionary-boots")));
+		assertEquals("dictionary-boots", dictionary.nameOf(id));
+		assertTrue(id < dictionary.size());
+		
+		// The store and the dictionary agree on the type, whichever way it is named
+		Store.getInstance().add("dictionary-boots", 1);
+		assertEquals(Store.getInstance().take(id, false), BuyResult.REGULAR_PRICE);
+		assertEquals(Store.getInstance().take("dictionary-boots", false), BuyResult.NOT_IN_STOCK);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownShoeTypeIdTest() {
+		ShoeTypeDictionary.getInstance().nameOf(Integer.MAX_VALUE);
+	}
 }
@@ -2,6 +2,9 @@ package bgu.spl.mics.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Phaser;
 
 import org.junit.After;
@@ -11,6 +14,9 @@ import org.junit.Test;
 import bgu.spl.app.messages.TerminateBroadcast;
 import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.app.services.TickListenerService;
+import bgu.spl.app.services.TimeService;
+import bgu.spl.app.services.TimeService.OverrunPolicy;
+import bgu.spl.mics.MicroService;
 import bgu.spl.mics.impl.MessageBusImpl;
 
 public class TickListenerServiceTest {
@@ -49,6 +55,34 @@ public class TickListenerServiceTest {
 		}
 	}
 	
+	/** Gets only the ticks it wakes up at */
+	class MyWakeUpListener extends TickListenerService {
+		public static final int WAKE_UP_TICK = 3;
+		
+		private List<Integer> handledTicks;
+		
+		public MyWakeUpListener(Phaser initializedPhaser) {
+			super("test wake-up", initializedPhaser, false);
+			this.handledTicks = new CopyOnWriteArrayList<>();
+		}
+		
+		@Override
+		protected void initialize() {
+			wakeAt(WAKE_UP_TICK);
+			super.initialize();
+		}
+		
+		public List<Integer> getHandledTicks() {
+			return handledTicks;
+		}
+		
+		@Override
+		protected void handleTickBroadcast(TickBroadcast b) {
+			super.handleTickBroadcast(b);
+			handledTicks.add(b.getTick());
+		}
+	}
+	
 	Phaser tickListenerInitializedPhaser;
 	MyTickListener tickListener;
 	Thread tickListenerRunner;
@@ -106,4 +140,66 @@ public class TickListenerServiceTest {
 		
 		assertTrue(tickListener.isHandleTickBroadcastCalled());
 	}
+	
+	/** Tests that a service that doesn't need every tick gets only the ticks it wakes up at */
+	@Test
+	public void testWakeAt() throws InterruptedException {
+		Phaser initializedPhaser = new Phaser();
+		initializedPhaser.register();
+		MyWakeUpListener listener = new MyWakeUpListener(initializedPhaser);
+		Thread runner = new Thread(listener);
+		runner.start();
+		initializedPhaser.arriveAndAwaitAdvance();
+		
+		for (int tick = 1; tick <= 5; tick++) {
+			MessageBusImpl.getInstance().sendBroadcast(new TickBroadcast(tick));
+		}
+		
+		// Wait for the messages to be received
+		Thread.sleep(100);
+		
+		assertEquals(Arrays.asList(MyWakeUpListener.WAKE_UP_TICK), listener.getHandledTicks());
+		// tearDown terminates the listener as well
+	}
+	
+	/** 
+	 * Tests that a service that doesn't need every tick still wakes up when the TimeService 
+	 * coalesces the tick it asked for into a later one
+	 */
+	@Test
+	public void testWakeAtCoalescedTick() throws InterruptedException {
+		// Makes sending the first tick slow, so the following ticks are late
+		MicroService slowListener = new MicroService("slow tick listener") {
+			@Override
+			protected void initialize() {
+			}
+		};
+		MessageBusImpl bus = MessageBusImpl.getInstance();
+		bus.register(slowListener);
+		bus.subscribeBroadcast(TickBroadcast.class, slowListener);
+		bus.setMessageListener(slowListener, () -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		
+		Phaser initializedPhaser = new Phaser();
+		initializedPhaser.register();
+		MyWakeUpListener listener = new MyWakeUpListener(initializedPhaser);
+		Thread runner = new Thread(listener);
+		runner.start();
+		initializedPhaser.arriveAndAwaitAdvance();
+		
+		Thread timer = new Thread(new TimeService(10, 8, OverrunPolicy.COALESCE));
+		timer.start();
+		runner.join(2000);
+		timer.join(2000);
+		bus.unregister(slowListener);
+		
+		List<Integer> handledTicks = listener.getHandledTicks();
+		assertEquals(1, handledTicks.size());
+		assertTrue(handledTicks.get(0) >= MyWakeUpListener.WAKE_UP_TICK);
+	}
 }